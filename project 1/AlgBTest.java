@@ -22,20 +22,14 @@ public class AlgBTest {
 	LargeInteger c = new LargeInteger(BITLENGTH, rnd);
 	LargeInteger n = new LargeInteger(BITLENGTH, rnd);
 
-	while (n.isEven()) {
-		n = new LargeInteger(BITLENGTH, rnd);
-		System.out.print(".");
-	}
-	System.out.println();
-
 	// create random, mostly 0s, all 1s d to test 512 bit private key (d)
 	LargeInteger d_rand = new LargeInteger(BITLENGTH, rnd);
 	
 	byte[] temp0 = new byte[BITLENGTH/8];
-	byte[] temp1 = new byte[BITLENGTH/8];
+	byte[] temp1 = new byte[BITLENGTH/8 + 1]; // leading 0 byte keeps d_ones positive
 	for (int i = 0; i < temp0.length; i++) {
 		temp0[i] = (byte)1;
-		temp1[i] = (byte)255;
+		temp1[i + 1] = (byte)255;
 	}
 
 	LargeInteger d_zeros = new LargeInteger(temp0);
@@ -127,5 +121,21 @@ public class AlgBTest {
 	time = time / 5;
 	System.out.println();
 	System.out.println("Avg rand-1024 time: " + time);
+
+	// n is prime, so n+1 gives an even modulus to time the Barrett path
+	LargeInteger n_even = n.add(new LargeInteger(LargeInteger.ONE));
+	time = 0;
+	for (int i = 0; i < 5; i++) {
+		res = new LargeInteger();
+		startTime = System.nanoTime();
+		res = c.constModularExp(d_rand, n_even);
+		stopTime = System.nanoTime();
+		delta = (stopTime - startTime);
+		time += delta * Math.pow(10,-9);
+		System.out.print(delta + "-");
+	}
+	time = time / 5;
+	System.out.println();
+	System.out.println("Avg even-512 time: " + time);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,112 @@
+/**********************************************************************
+*   Author:         Michael Adams
+*
+*   Barrett reduction for a fixed modulus n of any parity. With b = 2^32
+*   and k the number of limbs in n, mu = floor(b^2k / n) is computed once
+*   so reducing a double-width value only takes two multiplications and
+*   a couple of subtractions, no division.
+***********************************************************************/
+
+public class BarrettReducer implements ModularReducer {
+    private final LargeInteger n;
+    private final int k;            // number of limbs in n
+    private final LargeInteger mu;  // floor(b^2k / n)
+    private final LargeInteger one; // 1 mod n
+
+    // n and mu again as mutable values for the in-place path, these are
+    //  only ever read so one copy is shared by every caller
+    private final MutableLargeInteger nMut;
+    private final MutableLargeInteger muMut;
+
+    /**
+     * Precompute mu for reducing by n
+     * @param n the modulus, must be positive
+     */
+    public BarrettReducer(LargeInteger n) {
+        if (n.isNegative() || n.isZero()) {
+            throw new IllegalArgumentException("Barrett modulus must be positive");
+        }
+        this.n = n.makeCopy();
+        this.k = this.n.magnitude().length;
+        this.mu = new LargeInteger(LargeInteger.ONE).leftShift(64 * k).divide(this.n);
+        this.one = new LargeInteger(LargeInteger.ONE).mod(this.n);
+        this.nMut = new MutableLargeInteger(this.n);
+        this.muMut = new MutableLargeInteger(this.mu);
+    }
+
+    public LargeInteger getModulus() {
+        return n;
+    }
+
+    public LargeInteger one() {
+        return one;
+    }
+
+    // residues are used as-is, so converting in is a single mod
+    public LargeInteger toDomain(LargeInteger x) {
+        return x.mod(n);
+    }
+
+    public LargeInteger fromDomain(LargeInteger x) {
+        return x;
+    }
+
+    public LargeInteger multiply(LargeInteger a, LargeInteger b) {
+        return reduce(a.multiply(b));
+    }
+
+    public LargeInteger square(LargeInteger a) {
+        return reduce(a.square());
+    }
+
+    public LargeInteger inverse(LargeInteger a) {
+        return a.modularInverse(n);
+    }
+
+    /**
+     * Reduce x mod n
+     * @param x any value, handled without division when 0 <= x < b^2k
+     * @return x mod n
+     */
+    public LargeInteger reduce(LargeInteger x) {
+        if (x.isNegative()) {
+            return x.mod(n);
+        }
+        MutableLargeInteger m = new MutableLargeInteger(x);
+        reduce(m);
+        return m.toLargeInteger();
+    }
+
+    /**
+     * Reduce x mod n in place (HAC algorithm 14.42)
+     * @param x value to reduce, handled without division when x < b^2k
+     *   (e.g., any product of two residues)
+     */
+    public void reduce(MutableLargeInteger x) {
+        if (x.intLen > 2 * k) {
+            x.divideKnuth(nMut, null);
+            return;
+        }
+        MutableLargeInteger q = x.scratchA();
+        MutableLargeInteger p = x.scratchB();
+
+        // q estimates floor(x / n) from the top limbs of x and mu, it is
+        //  never too large and at most 2 too small
+        q.setValue(x);
+        q.dropLowLimbs(k - 1);
+        q.mulInto(muMut, p);
+        p.dropLowLimbs(k + 1);
+
+        // so x - q*n only needs its low k+1 limbs, and only those of q*n
+        //  are computed
+        p.mulLowInto(nMut, q, k + 1);
+        x.keepLowLimbs(k + 1);
+        if (x.compare(q) < 0) {
+            x.addPowerOfBase(k + 1);
+        }
+        x.subtractFrom(q);
+        while (x.compare(nMut) >= 0) {
+            x.subtractFrom(nMut);
+        }
+    }
+}
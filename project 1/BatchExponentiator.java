@@ -0,0 +1,109 @@
+/**********************************************************************
+*   Author:         Michael Adams
+*
+*   Raises many independent bases to one shared exponent mod one shared
+*   modulus in parallel. The modulus context (Montgomery or Barrett) is
+*   built once and only read afterwards, so every worker uses the same
+*   one. The batch is split in halves recursively over a ForkJoinPool,
+*   each leaf writes its own slot of the output, and results come back
+*   in input order.
+***********************************************************************/
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+
+public class BatchExponentiator {
+    // bases per leaf task, one exponentiation already dwarfs the cost of
+    //  forking so there is no point in batching them further
+    private static final int LEAF_SIZE = 1;
+
+    private final LargeInteger exp;     // |exponent|
+    private final boolean invert;       // exponent was negative
+    private final ModularReducer red;
+    private final ForkJoinPool pool;
+
+    /**
+     * Prepare to exponentiate on the common pool
+     * @param exp the shared exponent
+     * @param n the shared modulus, must be positive
+     */
+    public BatchExponentiator(LargeInteger exp, LargeInteger n) {
+        this(exp, n, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Prepare to exponentiate on the given pool
+     * @param exp the shared exponent, a negative one inverts each base
+     * @param n the shared modulus, must be positive
+     * @param pool pool to run on, its parallelism sets the number of workers
+     */
+    public BatchExponentiator(LargeInteger exp, LargeInteger n, ForkJoinPool pool) {
+        this.exp = exp.isNegative() ? exp.negate() : exp.makeCopy();
+        this.invert = exp.isNegative();
+        this.red = ModularReducer.forModulus(n);
+        this.pool = pool;
+    }
+
+    /**
+     * Compute base^exp mod n for every base
+     * @param bases the bases, any LargeIntegers
+     * @return the results, in the same order as bases
+     * @throws ArithmeticException if exp is negative and some base has no
+     *   inverse mod n
+     */
+    public LargeInteger[] modularExp(LargeInteger[] bases) {
+        LargeInteger[] results = new LargeInteger[bases.length];
+        if (bases.length > 0) {
+            pool.invoke(new Slice(bases, results, 0, bases.length));
+        }
+        return results;
+    }
+
+    /**
+     * Compute base^exp mod n for every base in a stream
+     * @param bases finite stream of bases
+     * @return the results, in the stream's encounter order
+     */
+    public LargeInteger[] modularExp(Stream<LargeInteger> bases) {
+        return modularExp(bases.toArray(LargeInteger[]::new));
+    }
+
+    // one base, the same steps as LargeInteger.modularExp
+    private LargeInteger modularExp(LargeInteger base) {
+        LargeInteger b = red.toDomain(base);
+        if (invert) {
+            b = red.inverse(b);
+        }
+        return red.fromDomain(LargeInteger.windowExp(b, exp, red));
+    }
+
+    // the slice [from, to) of the batch, split in halves down to LEAF_SIZE
+    //  (RecursiveAction is Serializable, but a task is never serialized)
+    @SuppressWarnings("serial")
+    private class Slice extends RecursiveAction {
+        private final LargeInteger[] bases;
+        private final LargeInteger[] results;
+        private final int from;
+        private final int to;
+
+        Slice(LargeInteger[] bases, LargeInteger[] results, int from, int to) {
+            this.bases = bases;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= LEAF_SIZE) {
+                for (int i = from; i < to; i++) {
+                    results[i] = modularExp(bases[i]);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Slice(bases, results, from, mid), new Slice(bases, results, mid, to));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/**********************************************************************
+*   Author:         Michael Adams
+*
+*   Checks FixedBaseExponentiator against java.math.BigInteger.modPow
+*   for every digit width up to 8: -1, +-2^j (a negative power of two
+*   is one bit shorter in two's complement than its magnitude), the
+*   longest allowed exponent, and random exponents of both signs, for
+*   an odd and an even modulus.
+*
+*   usage: java FixedBaseExpTest
+***********************************************************************/
+
+import java.math.BigInteger;
+import java.util.Random;
+
+public class FixedBaseExpTest {
+	public static final int MAX_EXP_BITS = 64;
+	public static final int RANDOM_EXPS = 200;
+
+	public static void main(String[] args) {
+	Random rnd = new Random();
+	BigInteger[] moduli = { BigInteger.valueOf(1000003), BigInteger.valueOf(1000002) };
+	BigInteger base = BigInteger.valueOf(5);
+	int failures = 0;
+
+	for (BigInteger n : moduli) {
+		for (int k = 1; k <= 8; k++) {
+			FixedBaseExponentiator fb = new FixedBaseExponentiator(
+				toLarge(base), toLarge(n), MAX_EXP_BITS, k);
+
+			failures += check(fb, base, BigInteger.ONE.negate(), n, k);
+			for (int j = 0; j < MAX_EXP_BITS; j++) {
+				BigInteger p = BigInteger.ONE.shiftLeft(j);
+				failures += check(fb, base, p, n, k);
+				failures += check(fb, base, p.negate(), n, k);
+			}
+			BigInteger max = BigInteger.ONE.shiftLeft(MAX_EXP_BITS).subtract(BigInteger.ONE);
+			failures += check(fb, base, max, n, k);
+			failures += check(fb, base, max.negate(), n, k);
+
+			// |exp| = 2^maxExpBits is one bit too long for either sign
+			failures += expectReject(fb, BigInteger.ONE.shiftLeft(MAX_EXP_BITS), k);
+			failures += expectReject(fb, BigInteger.ONE.shiftLeft(MAX_EXP_BITS).negate(), k);
+
+			for (int i = 0; i < RANDOM_EXPS; i++) {
+				BigInteger e = new BigInteger(1 + rnd.nextInt(MAX_EXP_BITS), rnd);
+				failures += check(fb, base, rnd.nextBoolean() ? e : e.negate(), n, k);
+			}
+		}
+	}
+
+	System.out.println(failures == 0 ? "pass" : failures + " FAILED");
+	}
+
+	// 1 if fb disagrees with BigInteger for base^e mod n
+	private static int check(FixedBaseExponentiator fb, BigInteger base,
+		BigInteger e, BigInteger n, int k) {
+		BigInteger expected = base.modPow(e, n);
+		BigInteger got = new BigInteger(fb.modularExp(toLarge(e)).getVal());
+		if (!got.equals(expected)) {
+			System.out.println("k=" + k + " n=" + n + " e=" + e + ": got " + got
+				+ ", expected " + expected);
+			return 1;
+		}
+		return 0;
+	}
+
+	// 1 if fb accepts an exponent longer than its table
+	private static int expectReject(FixedBaseExponentiator fb, BigInteger e, int k) {
+		try {
+			fb.modularExp(toLarge(e));
+		} catch (IllegalArgumentException ex) {
+			return 0;
+		}
+		System.out.println("k=" + k + " e=" + e + ": accepted an exponent that is too long");
+		return 1;
+	}
+
+	private static LargeInteger toLarge(BigInteger x) {
+		return new LargeInteger(x.toByteArray());
+	}
+}
@@ -0,0 +1,157 @@
+/**********************************************************************
+*   Author:         Michael Adams
+*
+*   Exponentiation of one fixed base g mod n to many exponents. Split
+*   into k-bit digits, an exponent is e = sum of d_i * 2^(k*i), so
+*   g^e = product of g^(d_i * 2^(k*i)). All of those powers are put in
+*   a table once, and after that every exponentiation is one multiply
+*   per nonzero digit with no squarings at all (the fixed-base windowing
+*   method of Brickell, Gordon, McCurley and Wilson, HAC 14.109).
+*
+*   The table has ceil(maxExpBits / k) rows of 2^k - 1 residues, so k
+*   trades memory for speed: each extra bit of k nearly doubles the
+*   table and saves a multiply every k bits or so.
+***********************************************************************/
+
+public class FixedBaseExponentiator {
+    public static final int MAX_WINDOW = 16;
+
+    private final ModularReducer red;
+    private final int maxExpBits;
+    private final int k;                        // bits per digit
+    private final MutableLargeInteger[][] table; // table[i][d] = g^(d * 2^(k*i)), d > 0
+
+    /**
+     * Precompute the table for base mod n
+     * @param base the fixed base
+     * @param n the modulus, must be positive
+     * @param maxExpBits longest exponent that will be used, in bits
+     * @param k digit width in bits, from 1 to MAX_WINDOW
+     */
+    public FixedBaseExponentiator(LargeInteger base, LargeInteger n, int maxExpBits, int k) {
+        if (k < 1 || k > MAX_WINDOW) {
+            throw new IllegalArgumentException("window must be 1 to " + MAX_WINDOW + " bits");
+        }
+        if (maxExpBits < 1) {
+            throw new IllegalArgumentException("maxExpBits must be positive");
+        }
+        this.red = ModularReducer.forModulus(n);
+        this.maxExpBits = maxExpBits;
+        this.k = k;
+
+        int limbs = n.magnitude().length;
+        int rows = (maxExpBits + k - 1) / k;
+        table = new MutableLargeInteger[rows][1 << k];
+
+        // g holds g^(2^(k*i)) for the current row
+        MutableLargeInteger g = new MutableLargeInteger(red.toDomain(base));
+        MutableLargeInteger sqr = new MutableLargeInteger(2 * limbs + 1);
+        MutableLargeInteger swap;
+        for (int i = 0; i < rows; i++) {
+            // entries are computed in sqr and stored trimmed to size, so
+            //  the table really is tableBytes() of limbs
+            table[i][1] = g;
+            for (int d = 2; d < (1 << k); d++) {
+                table[i][d - 1].mulInto(g, sqr);
+                sqr.reduceInPlace(red);
+                table[i][d] = new MutableLargeInteger(sqr.toLargeInteger());
+            }
+            if (i == rows - 1) {
+                break;
+            }
+
+            // the next row starts at g^(2^k), k squarings further on
+            MutableLargeInteger next = new MutableLargeInteger(g.toLargeInteger());
+            for (int s = 0; s < k; s++) {
+                next.squareInto(sqr);
+                sqr.reduceInPlace(red);
+                swap = next;
+                next = sqr;
+                sqr = swap;
+            }
+            g = new MutableLargeInteger(next.toLargeInteger());
+        }
+    }
+
+    /**
+     * Precompute with the widest digit whose table fits in maxBytes
+     * @param base the fixed base
+     * @param n the modulus, must be positive
+     * @param maxExpBits longest exponent that will be used, in bits
+     * @param maxBytes memory budget for the table's limbs
+     * @return the exponentiator
+     * @throws IllegalArgumentException if not even 1-bit digits fit
+     */
+    public static FixedBaseExponentiator withMemoryLimit(LargeInteger base, LargeInteger n,
+        int maxExpBits, long maxBytes) {
+        int limbs = n.magnitude().length;
+        int k = 0;
+        while (k < MAX_WINDOW && tableBytes(maxExpBits, k + 1, limbs) <= maxBytes) {
+            k++;
+        }
+        if (k == 0) {
+            throw new IllegalArgumentException("table does not fit in " + maxBytes + " bytes");
+        }
+        return new FixedBaseExponentiator(base, n, maxExpBits, k);
+    }
+
+    // bytes of limbs in a table for the given exponent length and digit width
+    static long tableBytes(int maxExpBits, int k, int limbs) {
+        long rows = (maxExpBits + k - 1) / k;
+        return rows * ((1L << k) - 1) * limbs * 4;
+    }
+
+    // bytes of limbs held by this table
+    public long tableBytes() {
+        return tableBytes(maxExpBits, k, red.getModulus().magnitude().length);
+    }
+
+    // digit width in bits
+    public int getWindow() {
+        return k;
+    }
+
+    /**
+     * Compute base^exp mod n from the table, one multiply per nonzero
+     * digit of exp. The table is only read, so concurrent calls are safe
+     * @param exp exponent whose magnitude has at most maxExpBits bits, a negative one
+     *   gives the inverse of base^|exp|
+     * @return base^exp mod n
+     */
+    public LargeInteger modularExp(LargeInteger exp) {
+        // digits come from |exp|, bitLength is the two's complement length
+        //  and is one short for -2^j
+        LargeInteger e = exp.isNegative() ? exp.negate() : exp;
+        if (e.bitLength() > maxExpBits) {
+            throw new IllegalArgumentException("exponent longer than " + maxExpBits + " bits");
+        }
+        int limbs = red.getModulus().magnitude().length;
+        MutableLargeInteger result = null;
+        MutableLargeInteger prod = new MutableLargeInteger(2 * limbs + 1);
+        MutableLargeInteger swap;
+
+        int rows = (e.bitLength() + k - 1) / k;
+        for (int i = 0; i < rows; i++) {
+            int digit = e.getWindow(i * k, k);
+            if (digit == 0) {
+                continue;
+            }
+            if (result == null) {
+                result = new MutableLargeInteger(2 * limbs + 1);
+                result.setValue(table[i][digit]);
+                continue;
+            }
+            result.mulInto(table[i][digit], prod);
+            prod.reduceInPlace(red);
+            swap = result;
+            result = prod;
+            prod = swap;
+        }
+
+        LargeInteger res = (result == null) ? red.one() : result.toLargeInteger();
+        if (exp.isNegative()) {
+            res = red.inverse(res);
+        }
+        return red.fromDomain(res);
+    }
+}
@@ -6,15 +6,108 @@
 ***********************************************************************/
 
 import java.util.Random;
-import java.math.BigInteger;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
 import java.lang.StringBuilder;
 import java.util.Arrays;
 import java.io.Serializable;
-
-public class LargeInteger implements Serializable {
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class LargeInteger implements Serializable, Comparable<LargeInteger> {
     public static final byte[] ONE = {(byte) 1};
     public static final byte[] ZERO = {(byte) 0}; //does the same thing as ONE basically
-    private byte[] val;
+    private static final long LONG_MASK = 0xFFFFFFFFL;
+    private static final int[] EMPTY_MAG = new int[0];
+    private static final long serialVersionUID = 2L;
+
+    // version byte leading an encoded array and a serialized LargeInteger,
+    //  bump it if the per-value encoding below ever changes
+    public static final int FORMAT_VERSION = 1;
+
+    // limbs or values a stream read allocates before any of the data has
+    //  arrived, more only as it does, so a forged length cannot exhaust
+    //  the heap
+    private static final int STREAM_READ_CHUNK = 1024;
+
+    // window width used by constModularExp (table of 2^4 entries)
+    static final int CONST_WINDOW = 4;
+
+    // prime search: candidates are trial divided by every odd prime below
+    //  SMALL_PRIME_LIMIT, and nextProbablePrime sieves SIEVE_SIZE odd
+    //  candidates at a time
+    static final int SMALL_PRIME_LIMIT = 2048;
+    private static final int[] SMALL_PRIMES = oddPrimesBelow(SMALL_PRIME_LIMIT);
+    private static final int SIEVE_SIZE = 1024;
+
+    // radix conversion: values up to this many limbs are converted one
+    //  int-sized chunk of digits at a time, larger ones are split in two
+    //  at a cached power of the radix
+    static final int RADIX_SCHOOLBOOK_LIMBS = 24;
+
+    // chunkDigits[r] digits of radix r fit in an int, chunkPower[r] is r
+    //  to that power
+    private static final int[] chunkDigits = new int[Character.MAX_RADIX + 1];
+    private static final int[] chunkPower = new int[Character.MAX_RADIX + 1];
+    static {
+        for (int r = Character.MIN_RADIX; r <= Character.MAX_RADIX; r++) {
+            long p = r;
+            int d = 1;
+            while (p * r <= Integer.MAX_VALUE) {
+                p *= r;
+                d++;
+            }
+            chunkDigits[r] = d;
+            chunkPower[r] = (int) p;
+        }
+    }
+
+    // radixPowers[r][i] = r^(chunkDigits[r] * 2^i), grown on demand; a
+    //  racing thread may compute the same power twice, which is harmless
+    private static volatile LargeInteger[][] radixPowers =
+        new LargeInteger[Character.MAX_RADIX + 1][0];
+
+    // fewest elements batchInverse gives a parallel chunk, each chunk pays
+    //  for one full inversion
+    static final int MIN_INVERSE_CHUNK = 64;
+
+    // limb counts at which multiply moves from schoolbook to Karatsuba and
+    //  from Karatsuba to Toom-3, defaults can be overridden per host with
+    //  -DLargeInteger.karatsubaThreshold=... and -DLargeInteger.toomCookThreshold=...
+    public static final int MIN_MULTIPLY_THRESHOLD = 8;
+    private static volatile int karatsubaThreshold =
+        Math.max(MIN_MULTIPLY_THRESHOLD, Integer.getInteger("LargeInteger.karatsubaThreshold", 80));
+    private static volatile int toomCookThreshold =
+        Math.max(MIN_MULTIPLY_THRESHOLD, Integer.getInteger("LargeInteger.toomCookThreshold", 240));
+
+    // same idea for square, which stays on schoolbook longer since it only
+    //  needs about half of the partial products
+    private static volatile int karatsubaSquareThreshold =
+        Math.max(MIN_MULTIPLY_THRESHOLD, Integer.getInteger("LargeInteger.karatsubaSquareThreshold", 128));
+    private static volatile int toomCookSquareThreshold =
+        Math.max(MIN_MULTIPLY_THRESHOLD, Integer.getInteger("LargeInteger.toomCookSquareThreshold", 216));
+
+    // value is held as sign and magnitude: mag is little-endian 32-bit limbs
+    //  (mag[0] is least significant) with no leading zero limbs, and signum
+    //  is -1, 0 or 1 (zero is always signum 0 with an empty mag)
+    //  (both are written by writeObject in the compact encoding, not by
+    //  default serialization)
+    private transient int signum;
+    private transient int[] mag;
+
+    // bitLength() + 1 once it has been computed, 0 before (mag is only
+    //  ever replaced by extend and readObject, which both reset it)
+    private transient int bitLengthPlusOne;
 
     // create an empty LargeInteger of default size
     public LargeInteger() {
@@ -28,36 +121,83 @@ public class LargeInteger implements Serializable {
 
     /**
      * Construct the LargeInteger from a given byte array
-     * @param b the byte array that this LargeInteger should represent
+     * @param b the big-endian two's complement byte array that this
+     *   LargeInteger should represent
      */
     public LargeInteger(byte[] b) {
-        val = b;
+        if (b.length > 0 && b[0] < 0) {
+            // flip all bits and add 1 to recover the magnitude
+            byte[] inv = new byte[b.length];
+            for (int i = 0; i < b.length; i++) {
+                inv[i] = (byte) ~b[i];
+            }
+            mag = incrementMag(magFromBytes(inv));
+            signum = -1;
+        }
+        else {
+            mag = magFromBytes(b);
+            signum = (mag.length == 0) ? 0 : 1;
+        }
+    }
+
+    // construct directly from a magnitude, trimming any leading zero limbs
+    //  (m is kept, not copied, so callers must not modify it afterwards)
+    LargeInteger(int[] m, int sign) {
+        mag = trimMag(m);
+        signum = (mag.length == 0) ? 0 : sign;
     }
 
     /**
      * Construct the LargeInteger by generatin a random n-bit number that is
-     * probably prime (2^-100 chance of being composite).
+     * probably prime (under 2^-80 chance of being composite).
      * @param n the bitlength of the requested integer
      * @param rnd instance of java.util.Random to use in prime generation
      */
     public LargeInteger(int n, Random rnd) {
-        val = BigInteger.probablePrime((n-1), rnd).toByteArray();
+        this(probablePrime(n - 1, rnd).mag, 1);
     }
     
     /**
-     * Return this LargeInteger's val
+     * Return this LargeInteger as a minimal big-endian two's complement
+     * byte array (a fresh copy, so callers may modify it freely)
      * @return val
      */
     public byte[] getVal() {
-        return val;
+        int byteLen = length();
+        byte[] res = new byte[byteLen];
+
+        // lay the magnitude out least significant byte last
+        for (int i = 0; i < byteLen; i++) {
+            int limb = i >>> 2;
+            if (limb < mag.length) {
+                res[byteLen - 1 - i] = (byte) (mag[limb] >>> ((i & 3) << 3));
+            }
+        }
+
+        // two's complement negation if needed: flip all bits and add 1
+        if (signum < 0) {
+            int carry = 1;
+            for (int i = byteLen - 1; i >= 0; i--) {
+                carry = (~res[i] & 0xFF) + carry;
+                res[i] = (byte) carry;
+                carry = carry >>> 8;
+            }
+        }
+        return res;
+    }
+
+    // the little-endian magnitude limbs themselves, for the modular
+    //  arithmetic helpers in this package (must not be modified)
+    int[] magnitude() {
+        return mag;
     }
 
     /**
-     * Return the number of bytes in val
+     * Return the number of bytes needed to hold this in two's complement
      * @return length of the val byte array
      */
     public int length() {
-        return val.length;
+        return bitLength() / 8 + 1;
     }
 
     /** 
@@ -65,21 +205,24 @@ public class LargeInteger implements Serializable {
      * @param extension the byte to place as most significant
      */
     public void extend(byte extension) {
+        byte[] val = getVal();
         byte[] newv = new byte[val.length + 1];
         newv[0] = extension;
         for (int i = 0; i < val.length; i++) {
             newv[i + 1] = val[i];
         }
-        val = newv;
+        LargeInteger ext = new LargeInteger(newv);
+        mag = ext.mag;
+        signum = ext.signum;
+        bitLengthPlusOne = 0;
     }
 
     /**
-     * If this is negative, most significant bit will be 1 meaning most 
-     * significant byte will be a negative signed number
+     * Check the sign of this
      * @return true if this is negative, false if positive
      */
     public boolean isNegative() {
-        return (val[0] < 0);
+        return (signum < 0);
     }
 
     /**
@@ -87,121 +230,50 @@ public class LargeInteger implements Serializable {
      * @param other the other LargeInteger to sum with this
      */
     public LargeInteger add(LargeInteger other) {
-        byte[] a, b;
-        // If operands are of different sizes, put larger first ...
-        if (val.length < other.length()) {
-            a = other.getVal();
-            b = val;
-        }
-        else {
-            a = val;
-            b = other.getVal();
-        }
-
-        // ... and normalize size for convenience
-        if (b.length < a.length) {
-            int diff = a.length - b.length;
-
-            byte pad = (byte) 0;
-            if (b[0] < 0) {
-                pad = (byte) 0xFF;
-            }
-
-            byte[] newb = new byte[a.length];
-            for (int i = 0; i < diff; i++) {
-                newb[i] = pad;
-            }
-
-            for (int i = 0; i < b.length; i++) {
-                newb[i + diff] = b[i];
-            }
+        return addSigned(other.mag, other.signum);
+    }
 
-            b = newb;
+    // sum of this and the value with magnitude m and sign sign
+    private LargeInteger addSigned(int[] m, int sign) {
+        if (sign == 0) {
+            return this.makeCopy();
+        }
+        if (signum == 0) {
+            return new LargeInteger(m.clone(), sign);
         }
 
-        // Actually compute the add
-        int carry = 0;
-        byte[] res = new byte[a.length];
-        for (int i = a.length - 1; i >= 0; i--) {
-            // Be sure to bitmask so that cast of negative bytes does not
-            //  introduce spurious 1 bits into result of cast
-            carry = ((int) a[i] & 0xFF) + ((int) b[i] & 0xFF) + carry;
-
-            // Assign to next byte
-            res[i] = (byte) (carry & 0xFF);
-
-            // Carry remainder over to next byte (always want to shift in 0s)
-            carry = carry >>> 8;
+        // Same signs just add magnitudes and keep the sign
+        if (signum == sign) {
+            return new LargeInteger(addMag(mag, m), signum);
         }
 
-        LargeInteger res_li = new LargeInteger(res);
-    
-        // If both operands are positive, magnitude could increase as a result
-        //  of addition
-        if (!this.isNegative() && !other.isNegative()) {
-            // If we have either a leftover carry value or we used the last
-            //  bit in the most significant byte, we need to extend the result
-            if (res_li.isNegative()) {
-                res_li.extend((byte) carry);
-            }
+        // Different signs subtract the smaller magnitude from the larger,
+        //  result takes the sign of whichever was larger
+        int cmp = compareMag(mag, m);
+        if (cmp == 0) {
+            return new LargeInteger(EMPTY_MAG, 0);
         }
-        // Magnitude could also increase if both operands are negative
-        else if (this.isNegative() && other.isNegative()) {
-            if (!res_li.isNegative()) {
-                res_li.extend((byte) 0xFF);
-            }
+        if (cmp > 0) {
+            return new LargeInteger(subtractMag(mag, m), signum);
         }
-
-        // Note that result will always be the same size as biggest input
-        //  (e.g., -127 + 128 will use 2 bytes to store the result value 1)
-        return res_li;
+        return new LargeInteger(subtractMag(m, mag), sign);
     }
 
     /**
-     * Negate val using two's complement representation
+     * Negate this, which only flips the sign of the magnitude
      * @return negation of this
      */
     public LargeInteger negate() {
-        byte[] neg = new byte[val.length];
-        int offset = 0;
-
-        // Check to ensure we can represent negation in same length
-        //  (e.g., -128 can be represented in 8 bits using two's 
-        //  complement, +128 requires 9)
-        if (val[0] == (byte) 0x80) { // 0x80 is 10000000
-            boolean needs_ex = true;
-            for (int i = 1; i < val.length; i++) {
-                if (val[i] != (byte) 0) {
-                    needs_ex = false;
-                    break;
-                }
-            }
-            // if first byte is 0x80 and all others are 0, must extend
-            if (needs_ex) {
-                neg = new byte[val.length + 1];
-                neg[0] = (byte) 0;
-                offset = 1;
-            }
-        }
-
-        // flip all bits
-        for (int i  = 0; i < val.length; i++) {
-            neg[i + offset] = (byte) ~val[i];
-        }
-
-        LargeInteger neg_li = new LargeInteger(neg);
-    
-        // add 1 to complete two's complement negation
-        return neg_li.add(new LargeInteger(ONE));
+        return new LargeInteger(mag.clone(), -signum);
     }
 
     /**
-     * Implement subtraction as simply negation and addition
+     * Implement subtraction as addition of other with its sign flipped
      * @param other LargeInteger to subtract from this
      * @return difference of this and other
      */
     public LargeInteger subtract(LargeInteger other) {
-        return this.add(other.negate());
+        return addSigned(other.mag, -other.signum);
     }
 
     /**
@@ -210,38 +282,231 @@ public class LargeInteger implements Serializable {
      * @return product of this and other
      */
     public LargeInteger multiply(LargeInteger other) {
-        LargeInteger result = new LargeInteger(); //initialize result to 0
-        LargeInteger thisCopy, otherCopy; //make copies of this and other
-        boolean neg = false; //check if we need to negate
+        if (signum == 0 || other.signum == 0) {
+            return new LargeInteger(EMPTY_MAG, 0);
+        }
+        if (other == this) {
+            return this.square();
+        }
 
-        if (this.isNegative()) {
-            thisCopy = this.negate(); //this is neg so negate
-            neg = !neg;
+        int xlen = mag.length;
+        int ylen = other.mag.length;
+
+        // small operands multiply magnitudes directly, sign is negative
+        //  if exactly one operand is
+        if (xlen < karatsubaThreshold || ylen < karatsubaThreshold) {
+            int[] res = new int[xlen + ylen];
+            multiplyToLen(mag, xlen, other.mag, ylen, res);
+            return new LargeInteger(res, signum * other.signum);
         }
-        else {
-            thisCopy = this.makeCopy(); //this is pos so just copy
+
+        // larger operands split up and recurse back into multiply
+        if (xlen < toomCookThreshold && ylen < toomCookThreshold) {
+            return multiplyKaratsuba(this, other);
+        }
+        return multiplyToomCook3(this, other);
+    }
+
+    /**
+     * Compute the square of this, computing each cross product x[i]*x[j]
+     * once and doubling rather than multiplying twice
+     * @return this * this
+     */
+    public LargeInteger square() {
+        if (signum == 0) {
+            return new LargeInteger(EMPTY_MAG, 0);
         }
 
-        if (other.isNegative()) {
-            otherCopy = other.negate(); //other is neg so negate
-            neg = !neg;
+        int len = mag.length;
+        if (len < karatsubaSquareThreshold) {
+            int[] res = new int[2 * len];
+            squareToLen(mag, len, res);
+            return new LargeInteger(res, 1);
         }
-        else {
-            otherCopy = other.makeCopy(); //other is pos so just copy
+        if (len < toomCookSquareThreshold) {
+            return squareKaratsuba();
         }
+        return squareToomCook3();
+    }
 
-        while (!otherCopy.isZero()) { //iterate thru otherCopy
-            if (!otherCopy.isEven()) {
-                result = result.add(new LargeInteger(extendArr(thisCopy.getVal())));
-            }
-            thisCopy = thisCopy.leftShift(1);
-            otherCopy = otherCopy.rightShift(1);
+    /**
+     * Set the operand sizes (in 32-bit limbs) where multiply switches from
+     * schoolbook to Karatsuba and from Karatsuba to Toom-3
+     * @param karatsuba limb count at which Karatsuba is used
+     * @param toomCook limb count at which Toom-3 is used
+     */
+    public static void setMultiplyThresholds(int karatsuba, int toomCook) {
+        if (karatsuba < MIN_MULTIPLY_THRESHOLD || toomCook < MIN_MULTIPLY_THRESHOLD) {
+            throw new IllegalArgumentException("multiply thresholds must be at least "
+                + MIN_MULTIPLY_THRESHOLD + " limbs");
         }
+        karatsubaThreshold = karatsuba;
+        toomCookThreshold = toomCook;
+    }
 
-        if (neg) {
-            result = result.negate(); //negate result if one of the operands was negative
+    /**
+     * Set the operand sizes (in 32-bit limbs) where square switches from
+     * schoolbook to Karatsuba and from Karatsuba to Toom-3
+     * @param karatsuba limb count at which Karatsuba squaring is used
+     * @param toomCook limb count at which Toom-3 squaring is used
+     */
+    public static void setSquareThresholds(int karatsuba, int toomCook) {
+        if (karatsuba < MIN_MULTIPLY_THRESHOLD || toomCook < MIN_MULTIPLY_THRESHOLD) {
+            throw new IllegalArgumentException("square thresholds must be at least "
+                + MIN_MULTIPLY_THRESHOLD + " limbs");
         }
-        return result;
+        karatsubaSquareThreshold = karatsuba;
+        toomCookSquareThreshold = toomCook;
+    }
+
+    // current Karatsuba square threshold in limbs
+    public static int getKaratsubaSquareThreshold() {
+        return karatsubaSquareThreshold;
+    }
+
+    // current Toom-3 square threshold in limbs
+    public static int getToomCookSquareThreshold() {
+        return toomCookSquareThreshold;
+    }
+
+    // current Karatsuba threshold in limbs
+    public static int getKaratsubaThreshold() {
+        return karatsubaThreshold;
+    }
+
+    // current Toom-3 threshold in limbs
+    public static int getToomCookThreshold() {
+        return toomCookThreshold;
+    }
+
+    /**
+     * Karatsuba multiplication: split each operand into upper and lower
+     * halves and use three half-size products instead of four
+     * @param x first operand
+     * @param y second operand
+     * @return product of x and y
+     */
+    private static LargeInteger multiplyKaratsuba(LargeInteger x, LargeInteger y) {
+        int half = (Math.max(x.mag.length, y.mag.length) + 1) / 2;
+
+        LargeInteger xl = x.getLower(half);
+        LargeInteger xh = x.getUpper(half);
+        LargeInteger yl = y.getLower(half);
+        LargeInteger yh = y.getUpper(half);
+
+        LargeInteger p1 = xh.multiply(yh); // high product
+        LargeInteger p2 = xl.multiply(yl); // low product
+        LargeInteger p3 = xh.add(xl).multiply(yh.add(yl));
+
+        // p1 * b^2h + (p3 - p1 - p2) * b^h + p2 where b is the limb base
+        LargeInteger result = p1.leftShift(32 * half).add(p3.subtract(p1).subtract(p2))
+            .leftShift(32 * half).add(p2);
+
+        return (x.signum != y.signum) ? result.negate() : result;
+    }
+
+    /**
+     * Karatsuba squaring: (xh*b^h + xl)^2 from three half-size squares
+     * @return square of this
+     */
+    private LargeInteger squareKaratsuba() {
+        int half = (mag.length + 1) / 2;
+
+        LargeInteger xl = getLower(half);
+        LargeInteger xh = getUpper(half);
+
+        LargeInteger xhs = xh.square();
+        LargeInteger xls = xl.square();
+
+        // xhs * b^2h + ((xl + xh)^2 - xhs - xls) * b^h + xls
+        return xhs.leftShift(32 * half).add(xl.add(xh).square().subtract(xhs.add(xls)))
+            .leftShift(32 * half).add(xls);
+    }
+
+    /**
+     * Toom-3 squaring, the same evaluation and interpolation as
+     * multiplyToomCook3 with every product a square
+     * @return square of this
+     */
+    private LargeInteger squareToomCook3() {
+        int k = (mag.length + 2) / 3;
+
+        LargeInteger a0 = getSlice(0, k);
+        LargeInteger a1 = getSlice(k, k);
+        LargeInteger a2 = getUpper(2 * k);
+
+        LargeInteger v0, v1, v2, vm1, vinf, t1, t2, tm1, da1;
+
+        // evaluation
+        v0 = a0.square();
+        da1 = a2.add(a0);
+        vm1 = da1.subtract(a1).square();
+        da1 = da1.add(a1);
+        v1 = da1.square();
+        vinf = a2.square();
+        v2 = da1.add(a2).leftShift(1).subtract(a0).square();
+
+        // interpolation, every division here is exact
+        t2 = v2.subtract(vm1).exactDivideBy3();
+        tm1 = v1.subtract(vm1).rightShift(1);
+        t1 = v1.subtract(v0);
+        t2 = t2.subtract(t1).rightShift(1);
+        t1 = t1.subtract(tm1).subtract(vinf);
+        t2 = t2.subtract(vinf.leftShift(1));
+        tm1 = tm1.subtract(t2);
+
+        int ss = 32 * k;
+        return vinf.leftShift(ss).add(t2).leftShift(ss).add(t1)
+            .leftShift(ss).add(tm1).leftShift(ss).add(v0);
+    }
+
+    /**
+     * Toom-3 multiplication: split each operand into three slices, evaluate
+     * at 0, 1, -1, 2 and infinity, and interpolate from five products
+     * (Bodrato's interpolation sequence, as used by java.math.BigInteger)
+     * @param a first operand
+     * @param b second operand
+     * @return product of a and b
+     */
+    private static LargeInteger multiplyToomCook3(LargeInteger a, LargeInteger b) {
+        int k = (Math.max(a.mag.length, b.mag.length) + 2) / 3;
+
+        LargeInteger a0 = a.getSlice(0, k);
+        LargeInteger a1 = a.getSlice(k, k);
+        LargeInteger a2 = a.getUpper(2 * k);
+        LargeInteger b0 = b.getSlice(0, k);
+        LargeInteger b1 = b.getSlice(k, k);
+        LargeInteger b2 = b.getUpper(2 * k);
+
+        LargeInteger v0, v1, v2, vm1, vinf, t1, t2, tm1, da1, db1;
+
+        // evaluation
+        v0 = a0.multiply(b0);
+        da1 = a2.add(a0);
+        db1 = b2.add(b0);
+        vm1 = da1.subtract(a1).multiply(db1.subtract(b1));
+        da1 = da1.add(a1);
+        db1 = db1.add(b1);
+        v1 = da1.multiply(db1);
+        v2 = da1.add(a2).leftShift(1).subtract(a0).multiply(
+             db1.add(b2).leftShift(1).subtract(b0));
+        vinf = a2.multiply(b2);
+
+        // interpolation, every division here is exact
+        t2 = v2.subtract(vm1).exactDivideBy3();
+        tm1 = v1.subtract(vm1).rightShift(1);
+        t1 = v1.subtract(v0);
+        t2 = t2.subtract(t1).rightShift(1);
+        t1 = t1.subtract(tm1).subtract(vinf);
+        t2 = t2.subtract(vinf.leftShift(1));
+        tm1 = tm1.subtract(t2);
+
+        // recombine the five coefficients k limbs apart
+        int ss = 32 * k;
+        LargeInteger result = vinf.leftShift(ss).add(t2).leftShift(ss).add(t1)
+            .leftShift(ss).add(tm1).leftShift(ss).add(v0);
+
+        return (a.signum != b.signum) ? result.negate() : result;
     }
     
     /**
@@ -254,37 +519,82 @@ public class LargeInteger implements Serializable {
      * such that this * x + other * y == GCD in index 0
      */
     public LargeInteger[] XGCD(LargeInteger other) {
+        LargeInteger a = this.isNegative() ? this.negate() : this;
+        LargeInteger b = other.isNegative() ? other.negate() : other;
+        LargeInteger oneInt = new LargeInteger(ONE);
+
+        // gcd(a, 0) == |a| == sign(a) * a, and gcd(0, 0) == 0 with x == 0
+        if (b.isZero()) {
+            return new LargeInteger[] { a.makeCopy(), valueOf(this.signum),
+                new LargeInteger(ZERO) };
+        }
+
+        // Lehmer's algorithm (TAOCP vol. 2, 4.5.2 Algorithm L): run Euclid
+        //  on the leading 62 bits of u and v with single-word cofactors
+        //  while the quotients are certain to match the full ones, then
+        //  apply the collected 2x2 matrix to u, v and the cofactors of a
+        //  in one multiprecision step. The leading parts only line up when
+        //  u >= v, so start from whichever of a and b is larger
+        LargeInteger u = a;
+        LargeInteger v = b;
+        LargeInteger su = oneInt; // u == su * a (mod b)
+        LargeInteger sv = new LargeInteger(ZERO); // v == sv * a (mod b)
+        if (compareMag(a.mag, b.mag) < 0) {
+            u = b;
+            v = a;
+            su = sv;
+            sv = oneInt;
+        }
+
+        while (!v.isZero()) {
+            int shift = Math.max(0, u.bitLength() - 62);
+            long uh = u.bitsFrom(shift);
+            long vh = v.bitsFrom(shift);
+            long ma = 1, mb = 0, mc = 0, md = 1;
+
+            while (vh + mc != 0 && vh + md != 0) {
+                long q = Math.floorDiv(uh + ma, vh + mc);
+                if (q != Math.floorDiv(uh + mb, vh + md)) {
+                    break;
+                }
+                long t = ma - q * mc;
+                ma = mc;
+                mc = t;
+                t = mb - q * md;
+                mb = md;
+                md = t;
+                t = uh - q * vh;
+                uh = vh;
+                vh = t;
+            }
+
+            if (mb == 0) {
+                // no single-word step was certain, do one full step
+                LargeInteger[] qr = divAndMod(u, v);
+                u = v;
+                v = qr[1];
+                LargeInteger t = su.subtract(qr[0].multiply(sv));
+                su = sv;
+                sv = t;
+            } else {
+                LargeInteger ma_li = valueOf(ma), mb_li = valueOf(mb);
+                LargeInteger mc_li = valueOf(mc), md_li = valueOf(md);
+                LargeInteger t = u.multiply(ma_li).add(v.multiply(mb_li));
+                v = u.multiply(mc_li).add(v.multiply(md_li));
+                u = t;
+                t = su.multiply(ma_li).add(sv.multiply(mb_li));
+                sv = su.multiply(mc_li).add(sv.multiply(md_li));
+                su = t;
+            }
+        }
+
+        // u == su * a + y * b, so y falls out of one exact division
+        LargeInteger y = u.subtract(su.multiply(a)).divide(b);
+
         LargeInteger[] returnArr = new LargeInteger[3]; //create return LargeInteger arr
-        LargeInteger s = new LargeInteger(ZERO); //intialize s to zero
-        LargeInteger t = new LargeInteger(ONE); //intialize t to one
-        LargeInteger r = other.makeCopy(); //copy other
-        LargeInteger s2 = new LargeInteger(ONE);
-        LargeInteger t2 = new LargeInteger(ZERO);
-        LargeInteger r2 = this.makeCopy();
-        LargeInteger q;
-        LargeInteger temp;
-
-        while (!r.isZero()) {
-            q = r2.divide(r);
-            temp = r;
-            LargeInteger res1 = q.multiply(temp);
-            r = (r2.subtract(res1));
-            r2 = temp;
-
-            temp = s;
-            LargeInteger res2 = q.multiply(temp);
-            s = (s2.subtract(res2));
-            s2 = temp;
-
-            temp = t;
-            LargeInteger res3 = q.multiply(temp);
-            
-            t = (t2.subtract(res3));
-            t2 = temp;
-        }
-        returnArr[0] = r2.trimLeadZeros();
-        returnArr[1] = s2.trimLeadZeros();
-        returnArr[2] = t2.trimLeadZeros();
+        returnArr[0] = u.makeCopy(); // u is other itself when this is zero
+        returnArr[1] = this.isNegative() ? su.negate() : su;
+        returnArr[2] = other.isNegative() ? y.negate() : y;
         return returnArr;
     }
 
@@ -302,304 +612,1007 @@ public class LargeInteger implements Serializable {
         if (y.equals(oneInt.negate())) { //mod inverse if == -1
             return this.modularInverse(n);
         }
-        if (y.lessThan(zeroInt)) { //moc inverse if < 0
-            System.out.println("modInverse instead of negative modExp");
-            base = base.modularInverse(n);
-            y = y.negate();
-        }
 
-        LargeInteger result = new LargeInteger(ONE);
-        LargeInteger exp = y.makeCopy();
-        //compute result
-        while (!exp.isZero()) {
-            if (!exp.isEven()) { //if exponent is odd, do additional mult
-                result = result.multiply(base).mod(n);
-            }
-            exp = exp.rightShift(1); 
-            base = base.multiply(base).mod(n); //square base
+        // work in a precomputed domain (Montgomery for odd n, Barrett for
+        //  even n) so the loop never divides
+        ModularReducer red = ModularReducer.forModulus(n);
+        base = red.toDomain(base);
+        if (y.lessThan(zeroInt)) { // x^y == (x^-1)^-y, inverted in the domain
+            base = red.inverse(base);
+            y = y.negate();
         }
-        return result;
+        LargeInteger result = windowExp(base, y, red);
+        return red.fromDomain(result);
     }
 
-    public LargeInteger constModularExp(LargeInteger y, LargeInteger n) {
-        LargeInteger zeroInt = new LargeInteger(ZERO);
-        LargeInteger oneInt = new LargeInteger(ONE);
-        LargeInteger base = this.makeCopy();
-        LargeInteger temp = new LargeInteger();
-
-        if (y.equals(oneInt.negate())) { //mod inverse if == -1
-            return this.modularInverse(n);
-        }
-        if (y.lessThan(zeroInt)) { //moc inverse if < 0
-            System.out.println("modInverse instead of negative modExp");
-            base = base.modularInverse(n);
-            y = y.negate();
+    /**
+     * Left-to-right sliding window exponentiation: precompute the odd
+     * powers base^1, base^3, ..., base^(2^w - 1), then scan the exponent
+     * from the top, squaring once per bit and multiplying once per window.
+     * All work happens in a fixed set of MutableLargeIntegers, so the
+     * number of arrays allocated does not grow with the exponent
+     * @param base the base, already in red's domain
+     * @param exp non-negative exponent
+     * @param red reducer for the modulus
+     * @return base^exp, in red's domain
+     */
+    static LargeInteger windowExp(LargeInteger base, LargeInteger exp, ModularReducer red) {
+        int bits = exp.bitLength();
+        if (bits == 0) {
+            return red.one();
         }
+        int w = windowSize(bits);
+        int k = red.getModulus().mag.length;
+        MutableLargeInteger[] table = oddPowers(new MutableLargeInteger(base), w, red);
+
+        // products land in prod and are swapped back into result
+        MutableLargeInteger result = new MutableLargeInteger(2 * k + 1);
+        MutableLargeInteger prod = new MutableLargeInteger(2 * k + 1);
+        MutableLargeInteger swap;
+        boolean started = false; // result holds nothing until the first window
+
+        int i = bits - 1;
+        while (i >= 0) {
+            if (!exp.testBit(i)) {
+                result.squareInto(prod);
+                prod.reduceInPlace(red);
+                swap = result;
+                result = prod;
+                prod = swap;
+                i--;
+                continue;
+            }
 
-        LargeInteger result = new LargeInteger(ONE);
-        LargeInteger exp = y.makeCopy();
-        //compute result
-        while (!exp.isZero()) {
-            if (!exp.isEven()) {
-                result = result.multiply(base).mod(n);
+            // longest window of at most w bits starting at i and ending
+            //  in a 1 bit, so its value is odd
+            int j = Math.max(i - w + 1, 0);
+            while (!exp.testBit(j)) {
+                j++;
+            }
+            int window = 0;
+            for (int b = i; b >= j; b--) {
+                window = (window << 1) | (exp.testBit(b) ? 1 : 0);
+                if (started) {
+                    result.squareInto(prod);
+                    prod.reduceInPlace(red);
+                    swap = result;
+                    result = prod;
+                    prod = swap;
+                }
             }
-            else if (exp.isEven()) { //extraneous mult to even time
-                temp = result.multiply(base).mod(n);
+
+            if (!started) {
+                result.setValue(table[window >>> 1]);
+                started = true;
+            } else {
+                result.mulInto(table[window >>> 1], prod);
+                prod.reduceInPlace(red);
+                swap = result;
+                result = prod;
+                prod = swap;
             }
-            exp = exp.rightShift(1);
-            base = base.multiply(base).mod(n);
+            i = j - 1;
         }
-        return result;
+        return result.toLargeInteger();
     }
 
-    // make a copy of the array
-    public LargeInteger makeCopy() {
-        byte[] copyVal = new byte[this.length()];
-
-        for (int i = 0; i < this.length(); i++) {
-            copyVal[i] = this.val[i];
+    // table[i] = base^(2i + 1) for i < 2^(w-1), base in red's domain
+    private static MutableLargeInteger[] oddPowers(MutableLargeInteger base, int w,
+        ModularReducer red) {
+        int k = red.getModulus().mag.length;
+        MutableLargeInteger[] table = new MutableLargeInteger[1 << (w - 1)];
+        table[0] = base;
+        if (w > 1) {
+            MutableLargeInteger baseSqr = new MutableLargeInteger(2 * k + 1);
+            table[0].squareInto(baseSqr);
+            baseSqr.reduceInPlace(red);
+            for (int i = 1; i < table.length; i++) {
+                table[i] = new MutableLargeInteger(2 * k + 1);
+                table[i - 1].mulInto(baseSqr, table[i]);
+                table[i].reduceInPlace(red);
+            }
         }
-
-        return new LargeInteger(copyVal);
+        return table;
     }
 
-    // is LargeInteger zero?
-    public boolean isZero() {
-        for (int i = 0; i < this.length(); i++) {
-            if (this.val[i] != 0) {
-                return false;
+    /**
+     * Compute the product of bases[i]^exps[i] mod n with one shared chain
+     * of squarings instead of one per base. Straus's interleaved sliding
+     * windows (Shamir's trick for two bases) are used unless Pippenger's
+     * bucket method needs fewer multiplies, which takes on the order of
+     * a thousand bases
+     * @param bases the bases
+     * @param exps one exponent per base, negative ones invert their base
+     * @param n mod value to use
+     * @return the product of bases[i]^exps[i] mod n
+     */
+    public static LargeInteger multiExp(LargeInteger[] bases, LargeInteger[] exps, LargeInteger n) {
+        if (bases.length != exps.length) {
+            throw new IllegalArgumentException("need one exponent per base");
+        }
+        ModularReducer red = ModularReducer.forModulus(n);
+        MutableLargeInteger[] b = new MutableLargeInteger[bases.length];
+        LargeInteger[] e = new LargeInteger[bases.length];
+        int bits = 0;
+        for (int j = 0; j < bases.length; j++) {
+            LargeInteger x = red.toDomain(bases[j]);
+            e[j] = exps[j];
+            if (exps[j].isNegative()) {
+                x = red.inverse(x);
+                e[j] = exps[j].negate();
             }
+            b[j] = new MutableLargeInteger(x);
+            bits = Math.max(bits, e[j].bitLength());
+        }
+        if (bits == 0) {
+            return red.fromDomain(red.one());
         }
-        return true;
-    }
 
-    // is LargeInteger even?
-    public boolean isEven() {
-        byte lsb = (byte) (this.val[this.length() - 1] & 0x1);
-        return (lsb == 0);
+        // multiplies besides the shared squarings: Straus pays bits / (w + 1)
+        //  per base plus its table, Pippenger bases + 2^(c+1) per c bits
+        int w = windowSize(bits);
+        int c = pippengerWindow(bases.length);
+        double straus = (double) bases.length * ((double) bits / (w + 1) + (1 << (w - 1)));
+        double pippenger = Math.ceil((double) bits / c) * (bases.length + (2 << c));
+        LargeInteger result = (pippenger < straus)
+            ? multiExpPippenger(b, e, bits, c, red) : multiExpStraus(b, e, bits, red);
+        return red.fromDomain(result);
     }
 
-    // extend byte array by 1 byte
-    public static byte[] extendArr(byte[] arr) {
-        byte[] extendedArr = new byte[arr.length + 1];
-        //copy into extended arr
-        for (int i = 0; i < arr.length; i++) {
-            extendedArr[i+1] = arr[i];
+    /**
+     * Straus: every exponent is cut into sliding windows on its own, with
+     * its own table of odd powers, and the windows are multiplied in as
+     * the shared squaring chain passes their lowest bit
+     */
+    private static LargeInteger multiExpStraus(MutableLargeInteger[] b, LargeInteger[] e,
+        int bits, ModularReducer red) {
+        int k = red.getModulus().mag.length;
+        int w = windowSize(bits);
+
+        // digits[j][i] is the odd value of e[j]'s window whose lowest bit
+        //  is i, or 0 if no window ends there
+        int[][] digits = new int[b.length][bits];
+        MutableLargeInteger[][] tables = new MutableLargeInteger[b.length][];
+        for (int j = 0; j < b.length; j++) {
+            int i = e[j].bitLength() - 1;
+            while (i >= 0) {
+                if (!e[j].testBit(i)) {
+                    i--;
+                    continue;
+                }
+                int lo = Math.max(i - w + 1, 0);
+                while (!e[j].testBit(lo)) {
+                    lo++;
+                }
+                digits[j][lo] = e[j].getWindow(lo, i - lo + 1);
+                i = lo - 1;
+            }
+            tables[j] = oddPowers(b[j], w, red);
         }
-        return extendedArr;
-    }
-
-    // shifts LargetInteger to the left a specific distance
-    public LargeInteger leftShift(int amt) {
-        byte[] arr = this.makeCopy().getVal();
 
-        for (int i = 0; i < amt; i++) {
-            boolean carry = false;
-            boolean inc = (arr[0] & 0x80) != 0;
-
-            if (inc) {
-                arr = extendArr(arr);
+        MutableLargeInteger result = new MutableLargeInteger(2 * k + 1);
+        MutableLargeInteger tmp = new MutableLargeInteger(2 * k + 1);
+        boolean started = false; // result holds nothing until the first window
+        for (int i = bits - 1; i >= 0; i--) {
+            if (started) {
+                mulReduce(result, result, tmp, red);
             }
-
-            for (int j = arr.length - 1; j >= 0; j--) {
-                boolean msb = ((byte) (arr[j] & 0x80)) != 0;
-                arr[j] <<= 1;
-                if (carry) {
-                    arr[j] |= 1;
+            for (int j = 0; j < b.length; j++) {
+                int d = digits[j][i];
+                if (d == 0) {
+                    continue;
                 }
-
-                if (msb) {
-                    carry = true;
+                if (started) {
+                    mulReduce(result, tables[j][d >>> 1], tmp, red);
                 } else {
-                    carry = false;
+                    result.setValue(tables[j][d >>> 1]);
+                    started = true;
                 }
             }
         }
-
-        return new LargeInteger(arr);
+        return result.toLargeInteger();
     }
 
-    // shifts LargetInteger to the right a specific distance
-    public LargeInteger rightShift(int amt) {
-        byte[] arr = this.makeCopy().getVal();
+    /**
+     * Pippenger: walk all exponents c bits at a time. In each window every
+     * base is multiplied into the bucket for its digit, then the buckets
+     * are folded with a running product (prod over d of bucket[d]^d costs
+     * two multiplies per bucket, no powers), and the result is shifted
+     * up by c squarings. A window costs about bases + 2^(c+1) multiplies
+     */
+    private static LargeInteger multiExpPippenger(MutableLargeInteger[] b, LargeInteger[] e,
+        int bits, int c, ModularReducer red) {
+        int k = red.getModulus().mag.length;
 
-        for (int i = 0; i < amt; i++) {
-            boolean carry = false;
+        MutableLargeInteger[] buckets = new MutableLargeInteger[1 << c];
+        for (int d = 1; d < buckets.length; d++) {
+            buckets[d] = new MutableLargeInteger(2 * k + 1);
+        }
+        boolean[] used = new boolean[1 << c];
+        MutableLargeInteger result = new MutableLargeInteger(2 * k + 1);
+        MutableLargeInteger running = new MutableLargeInteger(2 * k + 1);
+        MutableLargeInteger total = new MutableLargeInteger(2 * k + 1);
+        MutableLargeInteger tmp = new MutableLargeInteger(2 * k + 1);
+        boolean started = false;
+
+        for (int win = (bits + c - 1) / c - 1; win >= 0; win--) {
+            if (started) {
+                for (int s = 0; s < c; s++) {
+                    mulReduce(result, result, tmp, red);
+                }
+            }
 
-            for (int j = 0; j < arr.length; j++) {
-                boolean lsb = ((byte) (arr[j] & 0x1)) != 0;
-                boolean msb = ((byte) (arr[j] & 0x80)) != 0;
+            Arrays.fill(used, false);
+            for (int j = 0; j < b.length; j++) {
+                int d = e[j].getWindow(win * c, c);
+                if (d == 0) {
+                    continue;
+                }
+                if (used[d]) {
+                    mulReduce(buckets[d], b[j], tmp, red);
+                } else {
+                    buckets[d].setValue(b[j]);
+                    used[d] = true;
+                }
+            }
 
-                arr[j] = (byte) ((arr[j] & 0xFF) >> 1);
-                if (carry) {
-                    arr[j] |= 0x80;
+            // from the top bucket down, running = prod of bucket[d..top]
+            //  and total picks up running once per d, i.e. bucket[d]^d
+            boolean runningSet = false;
+            boolean totalSet = false;
+            for (int d = buckets.length - 1; d >= 1; d--) {
+                if (used[d]) {
+                    if (runningSet) {
+                        mulReduce(running, buckets[d], tmp, red);
+                    } else {
+                        running.setValue(buckets[d]);
+                        runningSet = true;
+                    }
+                }
+                if (runningSet) {
+                    if (totalSet) {
+                        mulReduce(total, running, tmp, red);
+                    } else {
+                        total.setValue(running);
+                        totalSet = true;
+                    }
                 }
+            }
 
-                if (lsb) {
-                    carry = true;
+            if (totalSet) {
+                if (started) {
+                    mulReduce(result, total, tmp, red);
                 } else {
-                    carry = false;
+                    result.setValue(total);
+                    started = true;
                 }
             }
-            arr[0] &= 0x7F;   
         }
-        return new LargeInteger(arr);
+        return started ? result.toLargeInteger() : red.one();
     }
 
-    // wrapper to call actual dividing method
-    public LargeInteger divide(LargeInteger other) {
-        return divAndMod(this, other)[0];
+    // Pippenger window c minimizing the multiplies per exponent bit,
+    //  (bases + 2^(c+1)) / c
+    private static int pippengerWindow(int bases) {
+        int c = 1;
+        for (int t = 2; t <= 16; t++) {
+            if ((double) (bases + (2 << t)) / t < (double) (bases + (2 << c)) / c) {
+                c = t;
+            }
+        }
+        return c;
     }
 
-    // compute division and modulus
-    public LargeInteger[] divAndMod(LargeInteger x, LargeInteger y) {
-        LargeInteger dividend, divisor;
-        boolean invQuo = false;
-        boolean invRem = false;
-
-        if (x.isNegative()) {
-            invQuo = !invQuo;
-            invRem = true;
-            dividend = x.negate();
-        } else {
-            dividend = x.makeCopy();
-        }
+    // acc = acc * y reduced by red, going through tmp (y may be acc)
+    private static void mulReduce(MutableLargeInteger acc, MutableLargeInteger y,
+        MutableLargeInteger tmp, ModularReducer red) {
+        acc.mulInto(y, tmp);
+        tmp.reduceInPlace(red);
+        acc.setValue(tmp);
+    }
 
-        if (y.isNegative()) {
-            invQuo = !invQuo;
-            divisor = y.negate();
-        } else {
-            divisor = y.makeCopy();
+    // window width for an exponent of the given bit length, chosen to
+    //  balance table size against multiplications saved (same breakpoints
+    //  as java.math.BigInteger)
+    private static int windowSize(int bits) {
+        int[] thresholds = { 7, 25, 81, 241, 673, 1793 };
+        int w = 1;
+        while (w <= thresholds.length && bits > thresholds[w - 1]) {
+            w++;
         }
+        return w;
+    }
 
-        if (dividend.equals(divisor)) {
-            LargeInteger one = new LargeInteger(ONE);
+    /**
+     * Compute this^y mod n in time independent of the value of y. The
+     * exponent is processed for a fixed public bit length: the bit length
+     * of n, or the limb-rounded length of y if y is longer than n
+     * @param y exponent to raise this to
+     * @param n mod value to use
+     * @return this^y mod n
+     */
+    public LargeInteger constModularExp(LargeInteger y, LargeInteger n) {
+        int expBits = Math.max(n.bitLength(), 32 * y.mag.length);
+        return constModularExp(y, n, expBits);
+    }
 
-            if (invQuo) {
-                one = one.negate();
-            }
-            return new LargeInteger[] { one, new LargeInteger(ZERO) };
-        }
+    /**
+     * Compute this^y mod n in time independent of the value of y, using
+     * fixed 4-bit windows: every window does the same squarings and one
+     * multiplication by a table entry picked with a masked scan of the
+     * whole table, so neither branches nor memory accesses depend on y.
+     * Only odd moduli (Montgomery) are fully constant time; even moduli
+     * use the same schedule but Barrett reduction itself is not
+     * @param y exponent to raise this to
+     * @param n mod value to use
+     * @param expBits public upper bound on the bit length of y
+     * @return this^y mod n
+     */
+    public LargeInteger constModularExp(LargeInteger y, LargeInteger n, int expBits) {
+        LargeInteger zeroInt = new LargeInteger(ZERO);
+        LargeInteger oneInt = new LargeInteger(ONE);
+        LargeInteger base = this.makeCopy();
 
-        if (dividend.lessThan(divisor)) {
-            return new LargeInteger[] { dividend, new LargeInteger(ZERO) };
+        if (y.equals(oneInt.negate())) { //mod inverse if == -1
+            return this.modularInverse(n);
+        }
+        ModularReducer red = ModularReducer.forModulus(n);
+        base = red.toDomain(base);
+        if (y.lessThan(zeroInt)) { // x^y == (x^-1)^-y, inverted in the domain
+            base = red.inverse(base);
+            y = y.negate();
+        }
+        if (y.bitLength() > expBits) {
+            throw new IllegalArgumentException("exponent longer than " + expBits + " bits");
         }
 
-        LargeInteger rem = new LargeInteger();
-        LargeInteger quo = new LargeInteger(dividend.length());
-
-        for (int i = 0; i < dividend.length() * 8; i++) {
-            rem = rem.leftShift(1);
+        if (red instanceof MontgomeryContext) {
+            return ((MontgomeryContext) red).constTimeExp(base, y, expBits);
+        }
 
-            if (dividend.getBit(i)) {
-                rem = rem.setLsb(true);
-            }
+        // even modulus: same fixed schedule over the generic reducer
+        int windows = (expBits + CONST_WINDOW - 1) / CONST_WINDOW;
+        LargeInteger[] table = new LargeInteger[1 << CONST_WINDOW];
+        table[0] = red.one();
+        table[1] = base;
+        for (int i = 2; i < table.length; i++) {
+            table[i] = red.multiply(table[i - 1], table[1]);
+        }
 
-            if (!(rem.trimLeadZeros().lessThan(divisor))) {
-                rem = rem.subtract(divisor);
-                quo = quo.setBit(i);
+        LargeInteger result = red.one();
+        for (int i = windows - 1; i >= 0; i--) {
+            for (int s = 0; s < CONST_WINDOW; s++) {
+                result = red.square(result);
             }
+            result = red.multiply(result, table[y.getWindow(i * CONST_WINDOW, CONST_WINDOW)]);
         }
+        return red.fromDomain(result);
+    }
 
-        if (invQuo) {
-            quo = quo.negate();
+    /**
+     * Probable prime test on |this|: trial division by the small primes,
+     * then Miller-Rabin with random bases (see passesMillerRabin)
+     * @param rounds number of Miller-Rabin rounds
+     * @return false if |this| is certainly composite, otherwise true with
+     *   a chance of at most 4^-rounds that it is composite anyway
+     */
+    public boolean isProbablePrime(int rounds) {
+        LargeInteger w = this.isNegative() ? this.negate() : this;
+        if (w.bitLength() < 2) {
+            return false; // 0 and 1
+        }
+        if (w.isEven()) {
+            return w.bitLength() == 2; // only 2 itself
         }
 
-        if (invRem) {
-            rem = rem.negate();
+        for (int p : SMALL_PRIMES) {
+            if (w.modInt(p) == 0) {
+                return w.mag.length == 1 && w.mag[0] == p;
+            }
         }
-        return new LargeInteger[] { quo, rem };
+        // no factor below the limit and smaller than its square: prime
+        if (w.mag.length == 1
+            && (w.mag[0] & LONG_MASK) < (long) SMALL_PRIME_LIMIT * SMALL_PRIME_LIMIT) {
+            return true;
+        }
+        return w.passesMillerRabin(rounds, ThreadLocalRandom.current());
     }
 
-    // extract specific bit
-    public static byte extractBit(byte b, byte offset) {
-        if ((b & offset) == 0) {
-            return (byte) 0;
-        } else {
-            return (byte) 1;
+    /**
+     * Smallest probable prime greater than this
+     * @return the first prime above this, composite with probability
+     *   below 2^-80
+     * @throws ArithmeticException if this is negative
+     */
+    public LargeInteger nextProbablePrime() {
+        if (this.isNegative()) {
+            throw new ArithmeticException("start < 0");
         }
+        return searchPrime(this.add(new LargeInteger(ONE)), ThreadLocalRandom.current());
     }
 
-    // trim off leading zeros
-    public LargeInteger trimLeadZeros() {
-        int leadZeros = 0;
+    /**
+     * Random probable prime with exactly the given bit length: pick a
+     * random starting point with the top bit set, then search upwards
+     * from it, retrying in the rare case the search runs past the top
+     * @param bitLength bit length of the prime, at least 2
+     * @param rnd source of random bits for the start and the bases
+     * @return a prime, composite with probability below 2^-80
+     */
+    public static LargeInteger probablePrime(int bitLength, Random rnd) {
+        if (bitLength < 2) {
+            throw new ArithmeticException("bitLength < 2");
+        }
+        int[] m = new int[(bitLength + 31) >>> 5];
+        while (true) {
+            for (int i = 0; i < m.length; i++) {
+                m[i] = rnd.nextInt();
+            }
+            int topBits = bitLength - 32 * (m.length - 1);
+            m[m.length - 1] &= (int) ((1L << topBits) - 1);
+            m[m.length - 1] |= 1 << (topBits - 1);
 
-        for (int i = 0; i < this.length(); i++) {
-            if (this.val[i] == 0) {
-                leadZeros++;
-            } else {
-                break;
+            LargeInteger prime = searchPrime(new LargeInteger(m.clone(), 1), rnd);
+            if (prime.bitLength() == bitLength) {
+                return prime;
             }
         }
-        byte[] newArr = new byte[this.length() - leadZeros];
-        for (int i = 0; i < newArr.length; i++) {
-            newArr[i] = this.val[i + leadZeros];
-        }
-        return new LargeInteger(newArr);
     }
 
-    // compute inverse
-    public LargeInteger modularInverse(LargeInteger other) {
-        LargeInteger base = other.makeCopy();        
-        base = base.add(new LargeInteger(ONE));
-
-        while (!base.mod(this).isZero()) {
-            base = base.add(other);
+    /**
+     * Smallest probable prime that is at least start. Odd candidates are
+     * sieved SIEVE_SIZE at a time: start mod p is found once for each
+     * small prime p, each p then strikes out its multiples in the block,
+     * and moving to the next block only updates those residues. The
+     * survivors go to Miller-Rabin
+     * @param start non-negative starting point
+     * @param rnd source of Miller-Rabin bases
+     * @return the first probable prime >= start
+     */
+    private static LargeInteger searchPrime(LargeInteger start, Random rnd) {
+        LargeInteger two = valueOf(2);
+        if (start.compareTo(two) <= 0) {
+            return two;
+        }
+        if (start.isEven()) {
+            start = start.add(new LargeInteger(ONE));
         }
 
-        return base.divide(this);
-    }
+        // small enough to be one of the sieving primes, just walk
+        if (start.bitLength() < 32) {
+            while (!start.isProbablePrime(millerRabinRounds(start.bitLength()))) {
+                start = start.add(two);
+            }
+            return start;
+        }
 
-    // compute modulus
-    public LargeInteger mod(LargeInteger other) {
-        if (this.lessThan(other)) {
-            return this.makeCopy();
-        } else if (this.equals(other)) {
-            return new LargeInteger();
+        int rounds = millerRabinRounds(start.bitLength());
+        int[] residues = new int[SMALL_PRIMES.length];
+        for (int i = 0; i < SMALL_PRIMES.length; i++) {
+            residues[i] = start.modInt(SMALL_PRIMES[i]);
         }
+        boolean[] composite = new boolean[SIEVE_SIZE];
+
+        while (true) {
+            Arrays.fill(composite, false);
+            for (int i = 0; i < SMALL_PRIMES.length; i++) {
+                int p = SMALL_PRIMES[i];
+                // start + 2j == 0 (mod p) when j == -residue / 2 (mod p)
+                int j = (int) ((long) ((p - residues[i]) % p) * ((p + 1) >>> 1) % p);
+                for (; j < SIEVE_SIZE; j += p) {
+                    composite[j] = true;
+                }
+            }
 
-        LargeInteger div = this.divide(other.makeCopy());
-        LargeInteger mult = div.multiply(other.makeCopy());
-        LargeInteger result = this.subtract(mult);
+            for (int j = 0; j < SIEVE_SIZE; j++) {
+                if (!composite[j]) {
+                    LargeInteger candidate = start.add(valueOf(2L * j));
+                    if (candidate.passesMillerRabin(rounds, rnd)) {
+                        return candidate;
+                    }
+                }
+            }
 
-        return new LargeInteger(extendArr(result.getVal()));
+            start = start.add(valueOf(2L * SIEVE_SIZE));
+            for (int i = 0; i < SMALL_PRIMES.length; i++) {
+                residues[i] = (int) ((residues[i] + 2L * SIEVE_SIZE) % SMALL_PRIMES[i]);
+            }
+        }
     }
 
-    // get specific bit
-    public boolean getBit(int i) {
-        int byteIndx = i / 8;
-        int bitIndx = 7 - (i - (byteIndx * 8));
-        return (this.val[byteIndx] & (int) Math.pow(2, bitIndx)) != 0;
-    }
+    /**
+     * Miller-Rabin on an odd this > 3: write this - 1 = d * 2^s, then for
+     * each random base a check that a^d is 1 or that squaring it reaches
+     * -1 within s - 1 steps. Everything stays in Montgomery form, where
+     * 1 and -1 are just R mod n and n - (R mod n)
+     * @param rounds number of random bases
+     * @param rnd source of the bases
+     * @return false if some base proves this composite
+     */
+    private boolean passesMillerRabin(int rounds, Random rnd) {
+        LargeInteger oneInt = new LargeInteger(ONE);
+        LargeInteger nMinusOne = this.subtract(oneInt);
+        MutableLargeInteger odd = new MutableLargeInteger(nMinusOne);
+        int s = odd.shiftRightToOdd();
+        LargeInteger d = odd.toLargeInteger();
+
+        MontgomeryContext mont = new MontgomeryContext(this);
+        LargeInteger oneM = mont.one();
+        LargeInteger minusOneM = this.subtract(oneM);
+        int bits = this.bitLength();
+
+        for (int i = 0; i < rounds; i++) {
+            LargeInteger a;
+            do {
+                a = randomBits(bits, rnd);
+            } while (a.compareTo(oneInt) <= 0 || a.compareTo(nMinusOne) >= 0);
+
+            LargeInteger x = windowExp(mont.toMontgomery(a), d, mont);
+            int j = 0;
+            while (!x.equals(minusOneM) && !(j == 0 && x.equals(oneM))) {
+                if (++j == s || x.equals(oneM)) {
+                    return false; // never reached -1, or hit a nontrivial root of 1
+                }
+                x = mont.montSqr(x);
+            }
+        }
+        return true;
+    }
 
-    // set specific bit to 1
+    // Miller-Rabin rounds that keep the error for a random candidate of
+    //  this size below 2^-80 (HAC table 4.4)
+    static int millerRabinRounds(int bits) {
+        int[] minBits = { 1300, 850, 650, 550, 450, 400, 350, 300, 250, 200, 150 };
+        int[] rounds = { 2, 3, 4, 5, 6, 7, 8, 9, 12, 15, 18 };
+        for (int i = 0; i < minBits.length; i++) {
+            if (bits >= minBits[i]) {
+                return rounds[i];
+            }
+        }
+        return 27;
+    }
+
+    // uniformly random value in [0, 2^bits)
+    private static LargeInteger randomBits(int bits, Random rnd) {
+        int[] m = new int[(bits + 31) >>> 5];
+        for (int i = 0; i < m.length; i++) {
+            m[i] = rnd.nextInt();
+        }
+        if ((bits & 0x1F) != 0) {
+            m[m.length - 1] &= (1 << (bits & 0x1F)) - 1;
+        }
+        return new LargeInteger(m, 1);
+    }
+
+    // every odd prime below limit, by the sieve of Eratosthenes
+    private static int[] oddPrimesBelow(int limit) {
+        boolean[] composite = new boolean[limit];
+        int[] primes = new int[limit];
+        int count = 0;
+        for (int i = 3; i < limit; i += 2) {
+            if (!composite[i]) {
+                primes[count++] = i;
+                for (int j = i * i; j < limit; j += 2 * i) {
+                    composite[j] = true;
+                }
+            }
+        }
+        return Arrays.copyOf(primes, count);
+    }
+
+    // make a copy of the array
+    public LargeInteger makeCopy() {
+        return new LargeInteger(mag.clone(), signum);
+    }
+
+    // is LargeInteger zero?
+    public boolean isZero() {
+        return signum == 0;
+    }
+
+    // is LargeInteger even?
+    public boolean isEven() {
+        return mag.length == 0 || (mag[0] & 1) == 0;
+    }
+
+    // w <= 32 bits of |this| starting at bit i (counting from the lsb)
+    int getWindow(int i, int w) {
+        int limb = i >>> 5;
+        int shift = i & 0x1F;
+        long bits = 0;
+        if (limb < mag.length) {
+            bits = (mag[limb] & LONG_MASK) >>> shift;
+        }
+        if (shift + w > 32 && limb + 1 < mag.length) {
+            bits |= (mag[limb + 1] & LONG_MASK) << (32 - shift);
+        }
+        return (int) (bits & ((1L << w) - 1));
+    }
+
+    // is bit i (counting from the lsb) of |this| set?
+    public boolean testBit(int i) {
+        int limb = i >>> 5;
+        return limb < mag.length && (mag[limb] & (1 << (i & 0x1F))) != 0;
+    }
+
+    // create a LargeInteger holding v
+    public static LargeInteger valueOf(long v) {
+        long abs = Math.abs(v); // Long.MIN_VALUE stays negative but its bits are right
+        int[] m = { (int) abs, (int) (abs >>> 32) };
+        return new LargeInteger(m, Long.signum(v));
+    }
+
+    // number of bits in the minimal two's complement form, excluding the
+    //  sign bit (same as java.math.BigInteger.bitLength), computed once
+    //  and then cached
+    public int bitLength() {
+        if (bitLengthPlusOne != 0) {
+            return bitLengthPlusOne - 1;
+        }
+        int len = 0;
+        if (mag.length != 0) {
+            len = magBitLength();
+
+            // a negative power of two fits in one less bit (e.g., -128 is 8 bits)
+            if (signum < 0 && getLowestSetBit() == len - 1) {
+                len--;
+            }
+        }
+        bitLengthPlusOne = len + 1;
+        return len;
+    }
+
+    // number of bits in |this|
+    private int magBitLength() {
+        if (mag.length == 0) {
+            return 0;
+        }
+        return ((mag.length - 1) << 5) + (32 - Integer.numberOfLeadingZeros(mag[mag.length - 1]));
+    }
+
+    // number of limbs in |this| (mag is kept trimmed, so this is exact)
+    public int limbLength() {
+        return mag.length;
+    }
+
+    // index of the lowest 1 bit, or -1 if this is zero (the same for
+    //  the magnitude and the two's complement form)
+    public int getLowestSetBit() {
+        for (int i = 0; i < mag.length; i++) {
+            if (mag[i] != 0) {
+                return (i << 5) + Integer.numberOfTrailingZeros(mag[i]);
+            }
+        }
+        return -1;
+    }
+
+    // number of bits in the two's complement form that differ from the
+    //  sign bit (same as java.math.BigInteger.bitCount)
+    public int bitCount() {
+        int count = 0;
+        for (int i = 0; i < mag.length; i++) {
+            count += Integer.bitCount(mag[i]);
+        }
+
+        // for negatives that is the 1 bits of |this| - 1: the lowest 1 bit
+        //  clears and every 0 below it sets
+        if (signum < 0) {
+            count += getLowestSetBit() - 1;
+        }
+        return count;
+    }
+
+    // bit n of the infinite two's complement form of this
+    private boolean twosComplementBit(int n) {
+        boolean magBit = testBit(n);
+        if (signum >= 0) {
+            return magBit;
+        }
+
+        // -x == ~(x - 1), and bit n of x - 1 flips only if the borrow from
+        //  subtracting 1 gets to it, i.e. every bit below n is 0
+        return magBit == (getLowestSetBit() >= n);
+    }
+
+
+    // extend byte array by 1 byte
+    public static byte[] extendArr(byte[] arr) {
+        byte[] extendedArr = new byte[arr.length + 1];
+        //copy into extended arr
+        for (int i = 0; i < arr.length; i++) {
+            extendedArr[i+1] = arr[i];
+        }
+        return extendedArr;
+    }
+
+    // shifts LargetInteger to the left a specific distance
+    public LargeInteger leftShift(int amt) {
+        if (amt <= 0 || signum == 0) {
+            return this.makeCopy();
+        }
+
+        int limbShift = amt >>> 5;
+        int bitShift = amt & 0x1F;
+        int[] res = new int[mag.length + limbShift + 1];
+
+        if (bitShift == 0) {
+            System.arraycopy(mag, 0, res, limbShift, mag.length);
+        } else {
+            int carry = 0;
+            for (int i = 0; i < mag.length; i++) {
+                res[i + limbShift] = (mag[i] << bitShift) | carry;
+                carry = mag[i] >>> (32 - bitShift);
+            }
+            res[mag.length + limbShift] = carry;
+        }
+        return new LargeInteger(res, signum);
+    }
+
+    // shifts LargetInteger to the right a specific distance
+    //  (rounds toward negative infinity, so -1 >> 1 stays -1)
+    public LargeInteger rightShift(int amt) {
+        if (amt <= 0 || signum == 0) {
+            return this.makeCopy();
+        }
+
+        int limbShift = amt >>> 5;
+        int bitShift = amt & 0x1F;
+        if (limbShift >= mag.length) {
+            return (signum < 0) ? new LargeInteger(new int[] { 1 }, -1)
+                : new LargeInteger(EMPTY_MAG, 0);
+        }
+
+        int[] res = new int[mag.length - limbShift];
+        if (bitShift == 0) {
+            System.arraycopy(mag, limbShift, res, 0, res.length);
+        } else {
+            for (int i = 0; i < res.length; i++) {
+                int hi = (i + limbShift + 1 < mag.length) ? mag[i + limbShift + 1] : 0;
+                res[i] = (mag[i + limbShift] >>> bitShift) | (hi << (32 - bitShift));
+            }
+        }
+
+        // negative values round down, so bump the magnitude if any 1 bits
+        //  were shifted out
+        if (signum < 0) {
+            boolean lost = bitShift != 0 && (mag[limbShift] << (32 - bitShift)) != 0;
+            for (int i = 0; i < limbShift && !lost; i++) {
+                lost = mag[i] != 0;
+            }
+            if (lost) {
+                res = incrementMag(res);
+            }
+        }
+        return new LargeInteger(res, signum);
+    }
+
+    // wrapper to call actual dividing method
+    public LargeInteger divide(LargeInteger other) {
+        return divAndMod(this, other)[0];
+    }
+
+    // compute division and modulus
+    //  quotient is truncated toward zero and the remainder takes the sign
+    //  of x, so x == quo * y + rem
+    public LargeInteger[] divAndMod(LargeInteger x, LargeInteger y) {
+        if (y.isZero()) {
+            throw new ArithmeticException("division by zero");
+        }
+
+        MutableLargeInteger rem = new MutableLargeInteger(x.mag.length + 1);
+        MutableLargeInteger quo = new MutableLargeInteger(x.mag.length);
+        MutableLargeInteger divisor = new MutableLargeInteger(y.mag.length);
+        rem.setValue(x.isNegative() ? x.negate() : x);
+        divisor.setValue(y.isNegative() ? y.negate() : y);
+        rem.divideKnuth(divisor, quo);
+
+        return new LargeInteger[] {
+            new LargeInteger(Arrays.copyOf(quo.value, quo.intLen), x.signum * y.signum),
+            new LargeInteger(Arrays.copyOf(rem.value, rem.intLen), x.signum)
+        };
+    }
+
+    // extract specific bit
+    public static byte extractBit(byte b, byte offset) {
+        if ((b & offset) == 0) {
+            return (byte) 0;
+        } else {
+            return (byte) 1;
+        }
+    }
+
+    // trim off leading zeros (mag never holds any, so this is just a copy)
+    public LargeInteger trimLeadZeros() {
+        return this.makeCopy();
+    }
+
+    /**
+     * Compute the inverse of this mod other from the extended GCD: when
+     * this * x + other * y == 1, x is the inverse
+     * @param other the modulus, must be positive
+     * @return x in [0, other) with this * x == 1 mod other
+     * @throws ArithmeticException if other is not positive or this has no
+     *   inverse mod other
+     */
+    public LargeInteger modularInverse(LargeInteger other) {
+        if (other.isNegative() || other.isZero()) {
+            throw new ArithmeticException("modulus not positive");
+        }
+
+        LargeInteger[] xgcd = this.mod(other).XGCD(other);
+        if (!xgcd[0].equals(new LargeInteger(ONE))) {
+            throw new ArithmeticException("not invertible mod the modulus");
+        }
+        return xgcd[1].mod(other);
+    }
+
+    /**
+     * Invert every element of xs mod n with a single modularInverse
+     * @param xs values to invert, each coprime to n
+     * @param n the modulus, must be positive
+     * @return xs[i]^-1 mod n, in the same order as xs
+     * @throws ArithmeticException if some element has no inverse
+     */
+    public static LargeInteger[] batchInverse(LargeInteger[] xs, LargeInteger n) {
+        return batchInverse(xs, n, null);
+    }
+
+    /**
+     * Invert every element of xs mod n with Montgomery's trick: invert
+     * the product of all of them once, then peel the single inverses off
+     * with the prefix products, 3(k-1) multiplies in all. With a pool the
+     * batch is cut into one chunk per worker, each with its own inversion
+     * @param xs values to invert, each coprime to n
+     * @param n the modulus, must be positive
+     * @param pool pool to spread the chunks over, or null to do it all on
+     *   the calling thread
+     * @return xs[i]^-1 mod n, in the same order as xs
+     * @throws ArithmeticException if some element has no inverse
+     */
+    public static LargeInteger[] batchInverse(LargeInteger[] xs, LargeInteger n, ForkJoinPool pool) {
+        if (n.isNegative() || n.isZero()) {
+            throw new ArithmeticException("modulus not positive");
+        }
+        BarrettReducer red = new BarrettReducer(n);
+        LargeInteger[] out = new LargeInteger[xs.length];
+
+        int chunks = 1;
+        if (pool != null) {
+            chunks = Math.max(1, Math.min(pool.getParallelism(), xs.length / MIN_INVERSE_CHUNK));
+        }
+        if (chunks == 1) {
+            batchInverse(xs, out, 0, xs.length, red);
+            return out;
+        }
+
+        RecursiveAction[] tasks = new RecursiveAction[chunks];
+        for (int c = 0; c < chunks; c++) {
+            int from = (int) ((long) xs.length * c / chunks);
+            int to = (int) ((long) xs.length * (c + 1) / chunks);
+            tasks[c] = new RecursiveAction() {
+                protected void compute() {
+                    batchInverse(xs, out, from, to, red);
+                }
+            };
+        }
+        pool.invoke(new RecursiveAction() {
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        return out;
+    }
+
+    // Montgomery's trick on xs[from, to) into out[from, to)
+    private static void batchInverse(LargeInteger[] xs, LargeInteger[] out, int from, int to,
+        BarrettReducer red) {
+        if (from == to) {
+            return;
+        }
+
+        // a[i] = xs[from + i] mod n, prefix[i] = a[0] * ... * a[i] mod n
+        LargeInteger[] a = new LargeInteger[to - from];
+        LargeInteger[] prefix = new LargeInteger[to - from];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = red.toDomain(xs[from + i]);
+            prefix[i] = (i == 0) ? a[0] : red.multiply(prefix[i - 1], a[i]);
+        }
+
+        // inv holds (a[0] * ... * a[i])^-1, so multiplying by the prefix
+        //  below i leaves a[i]^-1, and multiplying by a[i] moves inv down
+        LargeInteger inv = prefix[a.length - 1].modularInverse(red.getModulus());
+        for (int i = a.length - 1; i > 0; i--) {
+            out[from + i] = red.multiply(inv, prefix[i - 1]);
+            inv = red.multiply(inv, a[i]);
+        }
+        out[from] = inv;
+    }
+
+    // compute modulus, always in the range [0, |other|)
+    public LargeInteger mod(LargeInteger other) {
+        LargeInteger rem = divAndMod(this, other)[1];
+
+        if (rem.isNegative()) {
+            rem = rem.addSigned(other.mag, 1);
+        }
+        return rem;
+    }
+
+    // get specific bit (indexed from the msb of getVal())
+    public boolean getBit(int i) {
+        return twosComplementBit(msbIndexToBit(i));
+    }
+
+    // set specific bit to 1 (indexed from the msb of getVal())
     public LargeInteger setBit(int i) {
-        LargeInteger copyInt = this.makeCopy();
-        int byteIndx = i / 8;
-        int bitIndx = 7 - (i - (byteIndx * 8));
-        copyInt.val[byteIndx] |= (int) Math.pow(2, bitIndx);
-        return copyInt;
+        int n = msbIndexToBit(i);
+        if (twosComplementBit(n)) {
+            return this.makeCopy();
+        }
+
+        // positive and below the sign bit of getVal(): set it in a copy
+        if (signum >= 0 && i > 0) {
+            int[] m = Arrays.copyOf(mag, Math.max(mag.length, (n >>> 5) + 1));
+            m[n >>> 5] |= 1 << (n & 0x1F);
+            return new LargeInteger(m, 1);
+        }
+
+        // a 0 bit in two's complement is worth +2^n, except the sign bit
+        //  of getVal(), which is worth -2^n
+        LargeInteger pow2 = new LargeInteger(ONE).leftShift(n);
+        return (i == 0) ? this.subtract(pow2) : this.add(pow2);
     }
 
     // set the LSB to 0/1
     public LargeInteger setLsb(boolean bit) {
-        LargeInteger copyInt = this.makeCopy();
+        // the lsb is the same in two's complement and magnitude, so this
+        //  is at most a step of one
+        if (bit == isEven()) {
+            LargeInteger oneInt = new LargeInteger(ONE);
+            return bit ? this.add(oneInt) : this.subtract(oneInt);
+        }
+        return this.makeCopy();
+    }
 
-        if (bit) {
-            copyInt.val[copyInt.length() - 1] |= 0x1;
-        } else {
-            copyInt.val[copyInt.length() - 1] &= 0xFE;
+    // lsb-based index of bit i of getVal(), which counts from the msb
+    private int msbIndexToBit(int i) {
+        int width = 8 * length();
+        if (i < 0 || i >= width) {
+            throw new IndexOutOfBoundsException("bit " + i + " of a " + width + "-bit value");
         }
-        return copyInt;
+        return width - 1 - i;
     }
 
-    // compute GCD
+    // compute GCD with the binary (Stein) algorithm: strip the common
+    //  factors of 2, then repeatedly subtract the smaller odd value from
+    //  the larger, using only shifts and subtractions in place
     private static LargeInteger gcd(LargeInteger a, LargeInteger b) {
+        if (a.isZero()) {
+            return b.isNegative() ? b.negate() : b.makeCopy();
+        }
         if (b.isZero()) {
-            return a;
-        } else {
-            return gcd(b, a.mod(b));
+            return a.isNegative() ? a.negate() : a.makeCopy();
         }
+
+        MutableLargeInteger u = new MutableLargeInteger(a.isNegative() ? a.negate() : a);
+        MutableLargeInteger v = new MutableLargeInteger(b.isNegative() ? b.negate() : b);
+        MutableLargeInteger swap;
+
+        int common = Math.min(u.shiftRightToOdd(), v.getLowestSetBit());
+
+        // u stays odd, v is made odd and u subtracted from it until zero
+        while (!v.isZero()) {
+            v.shiftRightToOdd();
+            if (u.compare(v) > 0) {
+                swap = u;
+                u = v;
+                v = swap;
+            }
+            v.subtractFrom(u);
+        }
+
+        u.shiftLeftInPlace(common);
+        return u.toLargeInteger();
     }
 
     // wrapper to call actual GCD
@@ -610,48 +1623,599 @@ public class LargeInteger implements Serializable {
     // string stuff so we can actually see what the values are
     public String toString() {
         StringBuilder s = new StringBuilder();
+        byte[] val = this.getVal();
 
-        for (int i = 0; i < this.length(); i++) {
+        for (int i = 0; i < val.length; i++) {
             s.append(String.format("%8s",
-                Integer.toBinaryString(this.val[i] & 0xFF)).replace(' ', '0'));
+                Integer.toBinaryString(val[i] & 0xFF)).replace(' ', '0'));
         }
 
         return s.toString();
     }
 
-    // standard compareTo
-    // -1 if this < other
-    // 0 if this == other
-    // 1 if this > other
-    public int compareTo(LargeInteger other) {
-        byte[] offsets = { (byte) 0x1, (byte) 0x2, (byte) 0x4,
-            (byte) 0x8, (byte) 0x10, (byte) 0x20, (byte) 0x40, (byte) 0x80 };
-        LargeInteger thisTrim = this.trimLeadZeros();
-        LargeInteger otherTrim = other.trimLeadZeros();
-
-        if (thisTrim.length() > otherTrim.length()) {
-            return 1;
-        } else if (thisTrim.length() < otherTrim.length()) {
-            return -1;
+    /**
+     * Digits of this in the given radix, with a leading '-' if negative
+     * (same format as java.math.BigInteger.toString(radix)). Radices that
+     * are powers of two read the digits straight out of the limbs, others
+     * are split recursively at cached powers of the radix so each half
+     * is converted on its own
+     * @param radix from Character.MIN_RADIX to Character.MAX_RADIX
+     * @return the digits, lower case
+     */
+    public String toString(int radix) {
+        checkRadix(radix);
+        if (signum == 0) {
+            return "0";
+        }
+        StringBuilder s = new StringBuilder();
+        if (signum < 0) {
+            s.append('-');
+        }
+
+        if (Integer.bitCount(radix) == 1) {
+            int b = Integer.numberOfTrailingZeros(radix);
+            char[] digits = new char[(magBitLength() + b - 1) / b];
+            for (int i = 0; i < digits.length; i++) {
+                digits[digits.length - 1 - i] = Character.forDigit(getWindow(i * b, b), radix);
+            }
+            s.append(digits);
+        } else {
+            LargeInteger abs = (signum < 0) ? this.negate() : this;
+            appendDigits(abs, s, radix, 0);
         }
+        return s.toString();
+    }
 
-        byte[] thisVal = thisTrim.getVal();
-        byte[] otherVal = otherTrim.getVal();
+    /**
+     * Append the digits of non-negative u, padded with leading zeros to
+     * pad digits
+     */
+    private static void appendDigits(LargeInteger u, StringBuilder s, int radix, int pad) {
+        if (u.mag.length <= RADIX_SCHOOLBOOK_LIMBS) {
+            appendSmallDigits(u, s, radix, pad);
+            return;
+        }
+
+        // split at the largest cached power no more than half as long as u
+        int bitsPerChunk = 32 - Integer.numberOfLeadingZeros(chunkPower[radix]);
+        int i = Math.max(0, 31 - Integer.numberOfLeadingZeros(u.magBitLength() / (2 * bitsPerChunk)));
+        LargeInteger[] qr = u.divAndMod(u, radixPower(radix, i));
+        int lowDigits = chunkDigits[radix] << i;
 
-        for (int i = 0; i < thisTrim.length(); i++) {
-            for (int j = 7; j >= 0; j--) {
-                byte byte1 = extractBit(thisVal[i], offsets[j]);
-                byte byte2 = extractBit(otherVal[i], offsets[j]);
+        appendDigits(qr[0], s, radix, (pad > 0) ? pad - lowDigits : 0);
+        appendDigits(qr[1], s, radix, lowDigits);
+    }
 
-                if (byte1 > byte2) {
-                    return 1;
-                } else if (byte1 < byte2) {
-                    return -1;
+    // schoolbook conversion: divide a copy of the limbs by chunkPower
+    //  over and over, each remainder is one chunk of digits
+    private static void appendSmallDigits(LargeInteger u, StringBuilder s, int radix, int pad) {
+        int[] x = u.mag.clone();
+        int len = x.length;
+        int[] chunks = new int[len * 32 / chunkDigits[radix] + 1];
+        int count = 0;
+        long d = chunkPower[radix];
+        while (len > 0) {
+            long rem = 0;
+            for (int i = len - 1; i >= 0; i--) {
+                long cur = (rem << 32) | (x[i] & LONG_MASK);
+                x[i] = (int) (cur / d);
+                rem = cur % d;
+            }
+            chunks[count++] = (int) rem;
+            while (len > 0 && x[len - 1] == 0) {
+                len--;
+            }
+        }
+
+        String top = (count == 0) ? "" : Integer.toString(chunks[count - 1], radix);
+        int digits = top.length() + (count - 1) * chunkDigits[radix];
+        for (int i = digits; i < pad; i++) {
+            s.append('0');
+        }
+        s.append(top);
+        for (int c = count - 2; c >= 0; c--) {
+            String chunk = Integer.toString(chunks[c], radix);
+            for (int i = chunk.length(); i < chunkDigits[radix]; i++) {
+                s.append('0');
+            }
+            s.append(chunk);
+        }
+    }
+
+    /**
+     * Parse digits in the given radix with an optional leading '-' or '+'
+     * (the format toString(radix) and java.math.BigInteger produce).
+     * Power of two radices are packed straight into limbs; others are
+     * split recursively so the halves are parsed on their own and joined
+     * with one multiply by a cached power of the radix
+     * @param s the digits
+     * @param radix from Character.MIN_RADIX to Character.MAX_RADIX
+     * @return the value
+     * @throws NumberFormatException if s is not a valid number
+     */
+    public static LargeInteger parse(CharSequence s, int radix) {
+        checkRadix(radix);
+        int from = 0;
+        int sign = 1;
+        if (s.length() > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+')) {
+            sign = (s.charAt(0) == '-') ? -1 : 1;
+            from = 1;
+        }
+        if (from == s.length()) {
+            throw new NumberFormatException("no digits in \"" + s + "\"");
+        }
+        for (int i = from; i < s.length(); i++) {
+            if (Character.digit(s.charAt(i), radix) < 0) {
+                throw new NumberFormatException("bad digit '" + s.charAt(i) + "' in \"" + s + "\"");
+            }
+        }
+
+        LargeInteger res;
+        if (Integer.bitCount(radix) == 1) {
+            // fill limbs from the last digit up, b bits per digit
+            int b = Integer.numberOfTrailingZeros(radix);
+            int[] m = new int[(int) (((long) (s.length() - from) * b + 31) >>> 5)];
+            int bit = 0;
+            for (int i = s.length() - 1; i >= from; i--, bit += b) {
+                long digit = Character.digit(s.charAt(i), radix);
+                m[bit >>> 5] |= (int) (digit << (bit & 0x1F));
+                if ((bit & 0x1F) + b > 32) {
+                    m[(bit >>> 5) + 1] |= (int) (digit >>> (32 - (bit & 0x1F)));
                 }
             }
+            res = new LargeInteger(m, 1);
+        } else {
+            res = parse(s, from, s.length(), radix);
         }
+        return (sign < 0) ? res.negate() : res;
+    }
 
-        return 0;
+    // value of the (already validated) digits s[from, to)
+    private static LargeInteger parse(CharSequence s, int from, int to, int radix) {
+        int chunk = chunkDigits[radix];
+        if (to - from <= RADIX_SCHOOLBOOK_LIMBS * chunk) {
+            return smallParse(s, from, to, radix);
+        }
+
+        // the low part is the largest cached power's worth of digits that
+        //  still leaves some for the high part
+        int i = 31 - Integer.numberOfLeadingZeros((to - from - 1) / chunk);
+        int lowDigits = chunk << i;
+        LargeInteger high = parse(s, from, to - lowDigits, radix);
+        LargeInteger low = parse(s, to - lowDigits, to, radix);
+        return high.multiply(radixPower(radix, i)).add(low);
+    }
+
+    // schoolbook parse: m = m * radix^len + chunk, one int-sized chunk at a time
+    private static LargeInteger smallParse(CharSequence s, int from, int to, int radix) {
+        int chunk = chunkDigits[radix];
+        int[] m = new int[(to - from) / chunk + 1];
+        int len = 0;
+        int pos = from;
+        int first = (to - from) % chunk;
+        while (pos < to) {
+            int end = pos + ((pos == from && first != 0) ? first : chunk);
+            long value = 0;
+            long scale = 1;
+            for (; pos < end; pos++) {
+                value = value * radix + Character.digit(s.charAt(pos), radix);
+                scale *= radix;
+            }
+
+            long carry = value;
+            for (int j = 0; j < len; j++) {
+                carry += (m[j] & LONG_MASK) * scale;
+                m[j] = (int) carry;
+                carry >>>= 32;
+            }
+            if (carry != 0) {
+                m[len++] = (int) carry;
+            }
+        }
+        return new LargeInteger(m, 1);
+    }
+
+    // radix^(chunkDigits[radix] * 2^i), squaring up from the cached ones
+    private static LargeInteger radixPower(int radix, int i) {
+        LargeInteger[] powers = radixPowers[radix];
+        if (i < powers.length) {
+            return powers[i];
+        }
+
+        LargeInteger[] grown = Arrays.copyOf(powers, i + 1);
+        for (int j = powers.length; j <= i; j++) {
+            grown[j] = (j == 0) ? valueOf(chunkPower[radix]) : grown[j - 1].square();
+        }
+        LargeInteger[][] all = radixPowers.clone();
+        all[radix] = grown;
+        radixPowers = all;
+        return grown[i];
+    }
+
+    private static void checkRadix(int radix) {
+        if (radix < Character.MIN_RADIX || radix > Character.MAX_RADIX) {
+            throw new IllegalArgumentException("radix " + radix + " out of range");
+        }
+    }
+
+    // compact binary encoding: a header h = (bytes << 1) | (1 if negative)
+    //  as an unsigned LEB128 varint, then the magnitude in the fewest
+    //  big-endian bytes. Zero is the single byte 0, a value under 2^6 takes
+    //  2 bytes, and encodings are canonical (no redundant varint groups,
+    //  no leading zero byte, no negative zero), so equal values always
+    //  encode to equal bytes
+
+    /**
+     * Number of bytes writeTo produces for this
+     * @return the encoded length
+     */
+    public int encodedLength() {
+        int bytes = (magBitLength() + 7) >>> 3;
+        return varintLength(((long) bytes << 1) | (signum < 0 ? 1 : 0)) + bytes;
+    }
+
+    /**
+     * Write this in the compact encoding at the buffer's position, straight
+     * from the limbs with no intermediate array. The byte order of the
+     * buffer is ignored, the encoding is always big-endian
+     * @param buf buffer to write to
+     * @throws BufferOverflowException if fewer than encodedLength() bytes
+     *   remain, in which case nothing is written
+     */
+    public void writeTo(ByteBuffer buf) {
+        int bytes = (magBitLength() + 7) >>> 3;
+        long h = ((long) bytes << 1) | (signum < 0 ? 1 : 0);
+        if (buf.remaining() < varintLength(h) + bytes) {
+            throw new BufferOverflowException();
+        }
+        for (; h >= 0x80; h >>>= 7) {
+            buf.put((byte) (h | 0x80));
+        }
+        buf.put((byte) h);
+        if (bytes == 0) {
+            return;
+        }
+
+        // the top limb's nonzero bytes, then whole limbs downwards
+        int top = mag.length - 1;
+        for (int j = bytes - 4 * top - 1; j >= 0; j--) {
+            buf.put((byte) (mag[top] >>> (j << 3)));
+        }
+        boolean bigEndian = buf.order() == ByteOrder.BIG_ENDIAN;
+        for (int i = top - 1; i >= 0; i--) {
+            buf.putInt(bigEndian ? mag[i] : Integer.reverseBytes(mag[i]));
+        }
+    }
+
+    /**
+     * Write this in the compact encoding
+     * @param out stream to write to
+     * @throws IOException if out does
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        int bytes = (magBitLength() + 7) >>> 3;
+        long h = ((long) bytes << 1) | (signum < 0 ? 1 : 0);
+        for (; h >= 0x80; h >>>= 7) {
+            out.writeByte((int) (h | 0x80));
+        }
+        out.writeByte((int) h);
+        if (bytes == 0) {
+            return;
+        }
+
+        int top = mag.length - 1;
+        for (int j = bytes - 4 * top - 1; j >= 0; j--) {
+            out.writeByte(mag[top] >>> (j << 3));
+        }
+        for (int i = top - 1; i >= 0; i--) {
+            out.writeInt(mag[i]);
+        }
+    }
+
+    /**
+     * Read one value in the compact encoding from the buffer's position,
+     * straight into the limbs
+     * @param buf buffer to read from
+     * @return the value read
+     * @throws BufferUnderflowException if the encoding runs past the limit
+     * @throws IllegalArgumentException if the bytes are not a canonical
+     *   encoding
+     *   (either way the position is left where it was)
+     */
+    public static LargeInteger readFrom(ByteBuffer buf) {
+        int start = buf.position();
+        try {
+            long h = 0;
+            int b;
+            int shift = 0;
+            do {
+                b = buf.get() & 0xFF;
+                if (shift == 35 || (b == 0 && shift > 0)) {
+                    throw new IllegalArgumentException("malformed LargeInteger header");
+                }
+                h |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b >= 0x80);
+
+            int bytes = headerBytes(h);
+            if (bytes < 0) {
+                throw new IllegalArgumentException("malformed LargeInteger header");
+            }
+            if (buf.remaining() < bytes) {
+                throw new BufferUnderflowException();
+            }
+            if (bytes == 0) {
+                return new LargeInteger(EMPTY_MAG, 0);
+            }
+
+            int[] m = new int[(bytes + 3) >>> 2];
+            int top = 0;
+            for (int j = bytes - 4 * (m.length - 1); j > 0; j--) {
+                top = (top << 8) | (buf.get() & 0xFF);
+            }
+            if (top >>> (((bytes - 1) & 3) << 3) == 0) {
+                throw new IllegalArgumentException("LargeInteger encoding has a leading zero byte");
+            }
+            m[m.length - 1] = top;
+            boolean bigEndian = buf.order() == ByteOrder.BIG_ENDIAN;
+            for (int i = m.length - 2; i >= 0; i--) {
+                int limb = buf.getInt();
+                m[i] = bigEndian ? limb : Integer.reverseBytes(limb);
+            }
+            return new LargeInteger(m, (h & 1) != 0 ? -1 : 1);
+        } catch (RuntimeException e) {
+            buf.position(start);
+            throw e;
+        }
+    }
+
+    /**
+     * Read one value in the compact encoding
+     * @param in stream to read from
+     * @return the value read
+     * @throws java.io.EOFException if the stream ends part way through
+     * @throws StreamCorruptedException if the bytes are not a canonical
+     *   encoding
+     * @throws IOException if in does
+     */
+    public static LargeInteger readFrom(DataInput in) throws IOException {
+        long h = 0;
+        int b;
+        int shift = 0;
+        do {
+            b = in.readUnsignedByte();
+            if (shift == 35 || (b == 0 && shift > 0)) {
+                throw new StreamCorruptedException("malformed LargeInteger header");
+            }
+            h |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b >= 0x80);
+
+        int bytes = headerBytes(h);
+        if (bytes < 0) {
+            throw new StreamCorruptedException("malformed LargeInteger header");
+        }
+        if (bytes == 0) {
+            return new LargeInteger(EMPTY_MAG, 0);
+        }
+
+        int limbs = (bytes + 3) >>> 2;
+        int top = 0;
+        for (int j = bytes - 4 * (limbs - 1); j > 0; j--) {
+            top = (top << 8) | in.readUnsignedByte();
+        }
+        if (top >>> (((bytes - 1) & 3) << 3) == 0) {
+            throw new StreamCorruptedException("LargeInteger encoding has a leading zero byte");
+        }
+
+        // unlike a buffer, a stream cannot say up front whether the header
+        //  is honest, so the limbs are collected most significant first in
+        //  an array that grows as they arrive, then reversed
+        int[] m = new int[Math.min(limbs, STREAM_READ_CHUNK)];
+        m[0] = top;
+        for (int i = 1; i < limbs; i++) {
+            if (i == m.length) {
+                m = Arrays.copyOf(m, (int) Math.min(limbs, 2L * m.length));
+            }
+            m[i] = in.readInt();
+        }
+        for (int i = 0, j = limbs - 1; i < j; i++, j--) {
+            int t = m[i];
+            m[i] = m[j];
+            m[j] = t;
+        }
+        return new LargeInteger(m, (h & 1) != 0 ? -1 : 1);
+    }
+
+    /**
+     * Number of bytes writeArray produces for xs
+     * @param xs the values
+     * @return the encoded length
+     * @throws ArithmeticException if it does not fit in a ByteBuffer
+     */
+    public static int encodedLength(LargeInteger[] xs) {
+        long len = 1 + varintLength(xs.length);
+        for (LargeInteger x : xs) {
+            len += x.encodedLength();
+        }
+        return Math.toIntExact(len);
+    }
+
+    /**
+     * Write many values into one buffer: FORMAT_VERSION as a byte, the
+     * count as a varint, then every value in the compact encoding. Size
+     * the buffer with encodedLength(xs)
+     * @param xs the values
+     * @param buf buffer to write to
+     * @throws BufferOverflowException if the buffer is too small, in which
+     *   case nothing is written
+     */
+    public static void writeArray(LargeInteger[] xs, ByteBuffer buf) {
+        if (buf.remaining() < encodedLength(xs)) {
+            throw new BufferOverflowException();
+        }
+        buf.put((byte) FORMAT_VERSION);
+        long n = xs.length;
+        for (; n >= 0x80; n >>>= 7) {
+            buf.put((byte) (n | 0x80));
+        }
+        buf.put((byte) n);
+        for (LargeInteger x : xs) {
+            x.writeTo(buf);
+        }
+    }
+
+    /**
+     * Write many values in the same layout as writeArray(xs, ByteBuffer)
+     * @param xs the values
+     * @param out stream to write to
+     * @throws IOException if out does
+     */
+    public static void writeArray(LargeInteger[] xs, DataOutput out) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        long n = xs.length;
+        for (; n >= 0x80; n >>>= 7) {
+            out.writeByte((int) (n | 0x80));
+        }
+        out.writeByte((int) n);
+        for (LargeInteger x : xs) {
+            x.writeTo(out);
+        }
+    }
+
+    /**
+     * Read back an array written by writeArray
+     * @param buf buffer to read from
+     * @return the values, in the order written
+     * @throws BufferUnderflowException if the data runs past the limit
+     * @throws IllegalArgumentException if the version is unknown or the
+     *   bytes are malformed
+     *   (either way the position is left where it was)
+     */
+    public static LargeInteger[] readArray(ByteBuffer buf) {
+        int start = buf.position();
+        try {
+            int version = buf.get() & 0xFF;
+            if (version != FORMAT_VERSION) {
+                throw new IllegalArgumentException("unsupported LargeInteger encoding version " + version);
+            }
+            long n = 0;
+            int b;
+            int shift = 0;
+            do {
+                b = buf.get() & 0xFF;
+                if (shift == 35 || (b == 0 && shift > 0)) {
+                    throw new IllegalArgumentException("malformed LargeInteger array count");
+                }
+                n |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b >= 0x80);
+
+            // every value takes at least a byte, which bounds the count
+            //  before anything is allocated for it
+            if (n > buf.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            LargeInteger[] xs = new LargeInteger[(int) n];
+            for (int i = 0; i < xs.length; i++) {
+                xs[i] = readFrom(buf);
+            }
+            return xs;
+        } catch (RuntimeException e) {
+            buf.position(start);
+            throw e;
+        }
+    }
+
+    /**
+     * Read back an array written by writeArray
+     * @param in stream to read from
+     * @return the values, in the order written
+     * @throws StreamCorruptedException if the version is unknown or the
+     *   bytes are malformed
+     * @throws IOException if in does
+     */
+    public static LargeInteger[] readArray(DataInput in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new StreamCorruptedException("unsupported LargeInteger encoding version " + version);
+        }
+        long n = 0;
+        int b;
+        int shift = 0;
+        do {
+            b = in.readUnsignedByte();
+            if (shift == 35 || (b == 0 && shift > 0)) {
+                throw new StreamCorruptedException("malformed LargeInteger array count");
+            }
+            n |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b >= 0x80);
+        if (n > Integer.MAX_VALUE - 8) {
+            throw new StreamCorruptedException("LargeInteger array count " + n + " too large");
+        }
+
+        // grown as values arrive, for the same reason as in readFrom
+        LargeInteger[] xs = new LargeInteger[(int) Math.min(n, STREAM_READ_CHUNK)];
+        for (int i = 0; i < n; i++) {
+            if (i == xs.length) {
+                xs = Arrays.copyOf(xs, (int) Math.min(n, 2L * xs.length));
+            }
+            xs[i] = readFrom(in);
+        }
+        return xs;
+    }
+
+    // magnitude byte count in header h, or -1 if h is not a valid header
+    //  (negative zero, or more bytes than an int[] of limbs can hold)
+    private static int headerBytes(long h) {
+        long bytes = h >>> 1;
+        if (h == 1 || bytes > Integer.MAX_VALUE - 3) {
+            return -1;
+        }
+        return (int) bytes;
+    }
+
+    // bytes in the LEB128 varint form of v >= 0
+    private static int varintLength(long v) {
+        return (64 - Long.numberOfLeadingZeros(v | 1) + 6) / 7;
+    }
+
+    // serialization writes FORMAT_VERSION and the compact encoding in
+    //  place of the fields, so a small value costs a few bytes on top of
+    //  the stream's class descriptor
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeByte(FORMAT_VERSION);
+        writeTo(out);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new InvalidObjectException("unsupported LargeInteger encoding version " + version);
+        }
+        LargeInteger v = readFrom(in);
+        mag = v.mag;
+        signum = v.signum;
+        bitLengthPlusOne = 0;
+    }
+
+    // standard compareTo
+    // -1 if this < other
+    // 0 if this == other
+    // 1 if this > other
+    // (mag is always trimmed, so this is a sign check, a length check and
+    //  a scan from the top limb down to the first difference)
+    public int compareTo(LargeInteger other) {
+        if (signum != other.signum) {
+            return (signum > other.signum) ? 1 : -1;
+        }
+
+        // same sign, so compare magnitudes (reversed if both negative)
+        int cmp = compareMag(mag, other.mag);
+        return (signum < 0) ? -cmp : cmp;
     }
 
     public LargeInteger subtractOne() {
@@ -662,6 +2226,23 @@ public class LargeInteger implements Serializable {
         return this.compareTo(other) == 0;
     }
 
+    // equal values are equal objects, so LargeIntegers work as map keys
+    //  (as long as extend() is not called on a key)
+    @Override
+    public boolean equals(Object other) {
+        return (other instanceof LargeInteger) && this.equals((LargeInteger) other);
+    }
+
+    // hash over the trimmed limbs and the sign, consistent with equals
+    @Override
+    public int hashCode() {
+        int h = 0;
+        for (int i = mag.length - 1; i >= 0; i--) {
+            h = 31 * h + mag[i];
+        }
+        return h * signum;
+    }
+
     public boolean greaterThan(LargeInteger other) {
         return this.compareTo(other) > 0;
     }
@@ -669,4 +2250,233 @@ public class LargeInteger implements Serializable {
     public boolean lessThan(LargeInteger other) {
         return this.compareTo(other) < 0;
     }
-}
\ No newline at end of file
+
+    // pack unsigned big-endian bytes into little-endian limbs
+    private static int[] magFromBytes(byte[] b) {
+        int start = 0;
+        while (start < b.length && b[start] == 0) {
+            start++;
+        }
+
+        int[] res = new int[(b.length - start + 3) >>> 2];
+        int byteIndx = b.length - 1;
+        for (int i = 0; i < res.length; i++) {
+            int limb = 0;
+            for (int shift = 0; shift < 32 && byteIndx >= start; shift += 8) {
+                limb |= (b[byteIndx--] & 0xFF) << shift;
+            }
+            res[i] = limb;
+        }
+        return res;
+    }
+
+    // drop leading zero limbs, returning m itself if there are none
+    private static int[] trimMag(int[] m) {
+        int len = m.length;
+        while (len > 0 && m[len - 1] == 0) {
+            len--;
+        }
+        return (len == m.length) ? m : Arrays.copyOf(m, len);
+    }
+
+    // compare two trimmed magnitudes
+    private static int compareMag(int[] x, int[] y) {
+        if (x.length != y.length) {
+            return (x.length > y.length) ? 1 : -1;
+        }
+        for (int i = x.length - 1; i >= 0; i--) {
+            if (x[i] != y[i]) {
+                return ((x[i] & LONG_MASK) > (y[i] & LONG_MASK)) ? 1 : -1;
+            }
+        }
+        return 0;
+    }
+
+    // sum of two magnitudes
+    private static int[] addMag(int[] x, int[] y) {
+        if (x.length < y.length) {
+            int[] tmp = x;
+            x = y;
+            y = tmp;
+        }
+
+        int[] res = new int[x.length + 1];
+        long carry = 0;
+        int i = 0;
+        for (; i < y.length; i++) {
+            carry += (x[i] & LONG_MASK) + (y[i] & LONG_MASK);
+            res[i] = (int) carry;
+            carry >>>= 32;
+        }
+        for (; i < x.length; i++) {
+            carry += (x[i] & LONG_MASK);
+            res[i] = (int) carry;
+            carry >>>= 32;
+        }
+        res[x.length] = (int) carry;
+        return res;
+    }
+
+    // difference of two magnitudes, big must be at least as large as little
+    private static int[] subtractMag(int[] big, int[] little) {
+        int[] res = new int[big.length];
+        long borrow = 0;
+        int i = 0;
+        for (; i < little.length; i++) {
+            borrow = (big[i] & LONG_MASK) - (little[i] & LONG_MASK) + borrow;
+            res[i] = (int) borrow;
+            borrow >>= 32;
+        }
+        for (; i < big.length; i++) {
+            borrow = (big[i] & LONG_MASK) + borrow;
+            res[i] = (int) borrow;
+            borrow >>= 32;
+        }
+        return res;
+    }
+
+    // schoolbook product of x[0..xlen) and y[0..ylen), written into
+    //  z[0..xlen+ylen) with a 64-bit accumulator per partial product
+    static void multiplyToLen(int[] x, int xlen, int[] y, int ylen, int[] z) {
+        multiplyToLen(x, 0, xlen, y, 0, ylen, z, 0);
+    }
+
+    // the same for x[xo..xo+xlen) and y[yo..yo+ylen) into z[zo..), which
+    //  must not overlap either operand
+    static void multiplyToLen(int[] x, int xo, int xlen, int[] y, int yo, int ylen,
+        int[] z, int zo) {
+        // first row initializes z so it does not need to be zeroed
+        long carry = 0;
+        long x0 = x[xo] & LONG_MASK;
+        for (int j = 0; j < ylen; j++) {
+            carry += x0 * (y[yo + j] & LONG_MASK);
+            z[zo + j] = (int) carry;
+            carry >>>= 32;
+        }
+        z[zo + ylen] = (int) carry;
+
+        // x * y + z + carry always fits in 64 bits for 32-bit limbs
+        for (int i = 1; i < xlen; i++) {
+            long xi = x[xo + i] & LONG_MASK;
+            carry = 0;
+            for (int j = 0, k = zo + i; j < ylen; j++, k++) {
+                carry += xi * (y[yo + j] & LONG_MASK) + (z[k] & LONG_MASK);
+                z[k] = (int) carry;
+                carry >>>= 32;
+            }
+            z[zo + i + ylen] = (int) carry;
+        }
+    }
+
+    // |this| mod m for a positive int m
+    private int modInt(int m) {
+        long rem = 0;
+        for (int i = mag.length - 1; i >= 0; i--) {
+            rem = ((rem << 32) | (mag[i] & LONG_MASK)) % m;
+        }
+        return (int) rem;
+    }
+
+    // bits [shift, shift + 63) of |this| as a non-negative long
+    private long bitsFrom(int shift) {
+        int limb = shift >>> 5;
+        int bit = shift & 0x1F;
+        long lo = (limb < mag.length) ? mag[limb] & LONG_MASK : 0;
+        long mid = (limb + 1 < mag.length) ? mag[limb + 1] & LONG_MASK : 0;
+        long hi = (limb + 2 < mag.length) ? mag[limb + 2] & LONG_MASK : 0;
+
+        long res = (lo >>> bit) | (mid << (32 - bit));
+        if (bit > 0) {
+            res |= hi << (64 - bit);
+        }
+        return res & Long.MAX_VALUE;
+    }
+
+    // non-negative value of limbs [0, n) of the magnitude
+    private LargeInteger getLower(int n) {
+        return getSlice(0, n);
+    }
+
+    // non-negative value of limbs [n, mag.length) of the magnitude
+    private LargeInteger getUpper(int n) {
+        return getSlice(n, mag.length - n);
+    }
+
+    // non-negative value of limbs [from, from + len) of the magnitude
+    private LargeInteger getSlice(int from, int len) {
+        int end = Math.min(mag.length, from + len);
+        if (from >= end) {
+            return new LargeInteger(EMPTY_MAG, 0);
+        }
+        return new LargeInteger(Arrays.copyOfRange(mag, from, end), 1);
+    }
+
+    // divide by 3 when the remainder is known to be zero
+    private LargeInteger exactDivideBy3() {
+        int[] res = new int[mag.length];
+        long rem = 0;
+        for (int i = mag.length - 1; i >= 0; i--) {
+            long cur = (rem << 32) | (mag[i] & LONG_MASK);
+            res[i] = (int) (cur / 3);
+            rem = cur % 3;
+        }
+        return new LargeInteger(res, signum);
+    }
+
+    // square of x[0..len) into z[0..2*len): each cross product is computed
+    //  once, the sum of them doubled, then the diagonal squares added in
+    static void squareToLen(int[] x, int len, int[] z) {
+        squareToLen(x, 0, len, z, 0);
+    }
+
+    // the same for x[xo..xo+len) into z[zo..zo+2*len), which must not
+    //  overlap x
+    static void squareToLen(int[] x, int xo, int len, int[] z, int zo) {
+        int zlen = 2 * len;
+        Arrays.fill(z, zo, zo + zlen, 0);
+
+        // cross products x[i] * x[j] for i < j
+        for (int i = 0; i < len - 1; i++) {
+            long xi = x[xo + i] & LONG_MASK;
+            long carry = 0;
+            for (int j = i + 1; j < len; j++) {
+                carry += xi * (x[xo + j] & LONG_MASK) + (z[zo + i + j] & LONG_MASK);
+                z[zo + i + j] = (int) carry;
+                carry >>>= 32;
+            }
+            z[zo + i + len] = (int) carry;
+        }
+
+        // double them with a one bit left shift
+        int prev = 0;
+        for (int i = zo; i < zo + zlen; i++) {
+            int cur = z[i];
+            z[i] = (cur << 1) | (prev >>> 31);
+            prev = cur;
+        }
+
+        // add in the squares x[i] * x[i] on the diagonal
+        long carry = 0;
+        for (int i = 0; i < len; i++) {
+            long xi = x[xo + i] & LONG_MASK;
+            long sq = xi * xi;
+            carry += (z[zo + 2 * i] & LONG_MASK) + (sq & LONG_MASK);
+            z[zo + 2 * i] = (int) carry;
+            carry >>>= 32;
+            carry += (z[zo + 2 * i + 1] & LONG_MASK) + (sq >>> 32);
+            z[zo + 2 * i + 1] = (int) carry;
+            carry >>>= 32;
+        }
+    }
+
+    // magnitude plus one
+    private static int[] incrementMag(int[] m) {
+        int[] res = Arrays.copyOf(m, m.length + 1);
+        for (int i = 0; i < res.length; i++) {
+            if (++res[i] != 0) {
+                break;
+            }
+        }
+        return trimMag(res);
+    }
+}
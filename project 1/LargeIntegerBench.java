@@ -0,0 +1,203 @@
+/**********************************************************************
+*   Author:         Michael Adams
+*
+*   Benchmark suite for LargeInteger with java.math.BigInteger as the
+*   baseline. Every operation is run at each operand size with a timed
+*   warm-up first, seeded inputs so runs are comparable, and per-op
+*   allocation and GC counts from the JVM's management beans.
+*
+*   usage: java LargeIntegerBench [ops=add,multiply,...] [minBits=64]
+*              [maxBits=8192] [warmupMs=200] [measureMs=300]
+***********************************************************************/
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class LargeIntegerBench {
+	public static final String[] ALL_OPS = { "add", "subtract", "multiply",
+		"divAndMod", "mod", "modularExp", "constModularExp", "XGCD", "gcd",
+		"modularInverse", "toString", "toString10", "parse10", "encode", "compareTo" };
+
+	public static final String[] DEFAULT_OPS = ALL_OPS;
+
+	// one timed operation
+	interface Op {
+		Object run();
+	}
+
+	private static final com.sun.management.ThreadMXBean THREADS =
+		(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private static int warmupMs = 200;
+	private static int measureMs = 300;
+	private static Object sink;
+
+	public static void main(String[] args) {
+	String[] ops = DEFAULT_OPS;
+	int minBits = 64;
+	int maxBits = 8192;
+
+	for (String arg : args) {
+		String[] kv = arg.split("=", 2);
+		if (kv.length != 2) {
+			throw new IllegalArgumentException("expected key=value, got " + arg);
+		}
+		if (kv[0].equals("ops")) {
+			ops = kv[1].split(",");
+		} else if (kv[0].equals("minBits")) {
+			minBits = Integer.parseInt(kv[1]);
+		} else if (kv[0].equals("maxBits")) {
+			maxBits = Integer.parseInt(kv[1]);
+		} else if (kv[0].equals("warmupMs")) {
+			warmupMs = Integer.parseInt(kv[1]);
+		} else if (kv[0].equals("measureMs")) {
+			measureMs = Integer.parseInt(kv[1]);
+		} else {
+			throw new IllegalArgumentException("unknown option " + kv[0]);
+		}
+	}
+	THREADS.setThreadAllocatedMemoryEnabled(true);
+
+	System.out.printf("%-16s %6s  %14s %12s %6s  %14s %12s %6s  %8s%n", "op", "bits",
+		"LargeInt ns/op", "B/op", "gc", "BigInt ns/op", "B/op", "gc", "ratio");
+
+	for (String op : ops) {
+		if (!Arrays.asList(ALL_OPS).contains(op)) {
+			throw new IllegalArgumentException("unknown op " + op);
+		}
+		for (int bits = minBits; bits <= maxBits; bits *= 2) {
+			Op[] pair = build(op, bits, new Random(1699L * bits));
+			double[] li = measure(pair[0]);
+			double[] bi = (pair[1] == null) ? null : measure(pair[1]);
+
+			if (bi == null) {
+				System.out.printf("%-16s %6d  %14.0f %12.0f %6.0f  %14s %12s %6s  %8s%n",
+					op, bits, li[0], li[1], li[2], "-", "-", "-", "-");
+			} else {
+				System.out.printf("%-16s %6d  %14.0f %12.0f %6.0f  %14.0f %12.0f %6.0f  %8.2f%n",
+					op, bits, li[0], li[1], li[2], bi[0], bi[1], bi[2], li[0] / bi[0]);
+			}
+		}
+	}
+	}
+
+	/**
+	 * Build the LargeInteger operation and its BigInteger baseline (null if
+	 * BigInteger has no equivalent) on seeded inputs of the given size
+	 */
+	private static Op[] build(String op, int bits, Random rnd) {
+		BigInteger x = randomBits(bits, rnd);
+		BigInteger y = randomBits(bits, rnd);
+		BigInteger n = randomBits(bits, rnd).setBit(0);  // odd modulus
+		BigInteger e = randomBits(bits, rnd);
+		BigInteger wide = x.multiply(y);                // dividend twice as wide
+
+		// an operand coprime to n so the inverse exists
+		BigInteger coprime = x.mod(n);
+		while (!coprime.gcd(n).equals(BigInteger.ONE)) {
+			coprime = coprime.add(BigInteger.ONE);
+		}
+		BigInteger u = coprime;
+
+		LargeInteger lx = li(x), ly = li(y), ln = li(n), le = li(e), lw = li(wide), lu = li(u);
+
+		switch (op) {
+			case "add":
+				return new Op[] { () -> lx.add(ly), () -> x.add(y) };
+			case "subtract":
+				return new Op[] { () -> lx.subtract(ly), () -> x.subtract(y) };
+			case "multiply":
+				return new Op[] { () -> lx.multiply(ly), () -> x.multiply(y) };
+			case "divAndMod":
+				return new Op[] { () -> lw.divAndMod(lw, lx), () -> wide.divideAndRemainder(x) };
+			case "mod":
+				return new Op[] { () -> lw.mod(ln), () -> wide.mod(n) };
+			case "modularExp":
+				return new Op[] { () -> lx.modularExp(le, ln), () -> x.modPow(e, n) };
+			case "constModularExp":
+				return new Op[] { () -> lx.constModularExp(le, ln), () -> x.modPow(e, n) };
+			case "XGCD":
+				return new Op[] { () -> lx.XGCD(ly), null };
+			case "gcd":
+				return new Op[] { () -> lx.gcd(ly), () -> x.gcd(y) };
+			case "modularInverse":
+				return new Op[] { () -> lu.modularInverse(ln), () -> u.modInverse(n) };
+			case "toString":
+				return new Op[] { () -> lx.toString(), () -> x.toString(2) };
+			case "toString10":
+				return new Op[] { () -> lx.toString(10), () -> x.toString(10) };
+			case "parse10":
+				String dec = x.toString(10);
+				return new Op[] { () -> LargeInteger.parse(dec, 10), () -> new BigInteger(dec, 10) };
+			case "encode":
+				ByteBuffer buf = ByteBuffer.allocate(lx.encodedLength());
+				return new Op[] {
+					() -> {
+						buf.clear();
+						lx.writeTo(buf);
+						buf.flip();
+						return LargeInteger.readFrom(buf);
+					},
+					() -> new BigInteger(x.toByteArray()) };
+			case "compareTo":
+				// equal values force a full scan
+				LargeInteger lx2 = lx.makeCopy();
+				BigInteger x2 = new BigInteger(x.toByteArray());
+				return new Op[] { () -> lx.compareTo(lx2), () -> x.compareTo(x2) };
+			default:
+				throw new IllegalArgumentException("unknown op " + op);
+		}
+	}
+
+	/**
+	 * Warm up, then time op for measureMs (at least once)
+	 * @return { ns per op, bytes allocated per op, GC runs during measurement }
+	 */
+	private static double[] measure(Op op) {
+		long end = System.nanoTime() + warmupMs * 1000000L;
+		do {
+			sink = op.run();
+		} while (System.nanoTime() < end);
+
+		long tid = Thread.currentThread().getId();
+		long gcBefore = gcCount();
+		long allocBefore = THREADS.getThreadAllocatedBytes(tid);
+		long ops = 0;
+		long start = System.nanoTime();
+		end = start + measureMs * 1000000L;
+		long now;
+		do {
+			sink = op.run();
+			ops++;
+			now = System.nanoTime();
+		} while (now < end);
+		long alloc = THREADS.getThreadAllocatedBytes(tid) - allocBefore;
+		long gcs = gcCount() - gcBefore;
+
+		return new double[] { (double) (now - start) / ops, (double) alloc / ops, gcs };
+	}
+
+	// total collections so far across all collectors
+	private static long gcCount() {
+		long count = 0;
+		List<GarbageCollectorMXBean> gcs = ManagementFactory.getGarbageCollectorMXBeans();
+		for (GarbageCollectorMXBean gc : gcs) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	// random positive value with exactly the given bit length
+	private static BigInteger randomBits(int bits, Random rnd) {
+		return new BigInteger(bits, rnd).setBit(bits - 1);
+	}
+
+	private static LargeInteger li(BigInteger b) {
+		return new LargeInteger(b.toByteArray());
+	}
+}
@@ -0,0 +1,52 @@
+/**********************************************************************
+*   Author:         Michael Adams
+*
+*   Common interface for precomputed modular arithmetic under a fixed
+*   modulus. Values are converted into the reducer's own representation
+*   once, multiplied and squared there, then converted back out.
+***********************************************************************/
+
+public interface ModularReducer {
+
+    // the modulus this reducer works under
+    LargeInteger getModulus();
+
+    // 1 in this reducer's representation
+    LargeInteger one();
+
+    // convert any LargeInteger into this reducer's representation
+    LargeInteger toDomain(LargeInteger x);
+
+    // convert a value back out into a plain residue in [0, n)
+    LargeInteger fromDomain(LargeInteger x);
+
+    // product of two values in this reducer's representation
+    LargeInteger multiply(LargeInteger a, LargeInteger b);
+
+    // square of a value in this reducer's representation
+    LargeInteger square(LargeInteger a);
+
+    // inverse of a value in this reducer's representation, without
+    //  converting out and back in (ArithmeticException if there is none)
+    LargeInteger inverse(LargeInteger a);
+
+    // reduce, in place, the product of two values in this reducer's
+    //  representation back into it (x's scratch buffers may be used)
+    void reduce(MutableLargeInteger x);
+
+    /**
+     * Pick the cheapest reducer for n: Montgomery for odd moduli, Barrett
+     * for even ones (Montgomery needs n coprime to 2^32)
+     * @param n the modulus, must be positive
+     * @return a reducer for n
+     */
+    static ModularReducer forModulus(LargeInteger n) {
+        if (n.isNegative() || n.isZero()) {
+            throw new ArithmeticException("modulus not positive");
+        }
+        if (n.isEven()) {
+            return new BarrettReducer(n);
+        }
+        return new MontgomeryContext(n);
+    }
+}
@@ -0,0 +1,287 @@
+/**********************************************************************
+*   Author:         Michael Adams
+*
+*   Montgomery arithmetic for a fixed odd modulus n. Values are kept in
+*   Montgomery form x*R mod n (R = 2^(32k) for a k-limb n), where a
+*   product only needs a REDC pass over the low limbs instead of a full
+*   division by n.
+***********************************************************************/
+
+import java.util.Arrays;
+
+public class MontgomeryContext implements ModularReducer {
+    private static final long LONG_MASK = 0xFFFFFFFFL;
+
+    private final LargeInteger n;
+    private final int[] nMag;       // little-endian limbs of n
+    private final int k;            // number of limbs in n
+    private final int nPrime;       // -n^-1 mod 2^32
+    private final LargeInteger rModN;  // R mod n, Montgomery form of 1
+    private final LargeInteger r2ModN; // R^2 mod n, used to convert in
+    private final LargeInteger r3ModN; // R^3 mod n, used to invert in place
+
+    /**
+     * Precompute everything needed for Montgomery arithmetic mod n
+     * @param n the modulus, must be odd and positive
+     */
+    public MontgomeryContext(LargeInteger n) {
+        if (n.isNegative() || n.isZero() || n.isEven()) {
+            throw new IllegalArgumentException("Montgomery modulus must be odd and positive");
+        }
+        this.n = n.makeCopy();
+        this.nMag = this.n.magnitude();
+        this.k = nMag.length;
+        this.nPrime = -inverseMod32(nMag[0]);
+
+        LargeInteger r = new LargeInteger(LargeInteger.ONE).leftShift(32 * k);
+        this.rModN = r.mod(this.n);
+        this.r2ModN = rModN.square().mod(this.n);
+        this.r3ModN = r2ModN.multiply(rModN).mod(this.n);
+    }
+
+    // the modulus this context reduces by
+    public LargeInteger getModulus() {
+        return n;
+    }
+
+    // R mod n, which is 1 in Montgomery form
+    public LargeInteger one() {
+        return rModN;
+    }
+
+    /**
+     * Convert x into Montgomery form
+     * @param x any LargeInteger, reduced mod n first
+     * @return x * R mod n
+     */
+    public LargeInteger toMontgomery(LargeInteger x) {
+        return montMul(x.mod(n), r2ModN);
+    }
+
+    /**
+     * Convert x out of Montgomery form
+     * @param x a value in Montgomery form
+     * @return x * R^-1 mod n
+     */
+    public LargeInteger fromMontgomery(LargeInteger x) {
+        return redc(x);
+    }
+
+    /**
+     * Montgomery product of two values already in Montgomery form
+     * @param a first factor, in [0, n)
+     * @param b second factor, in [0, n)
+     * @return a * b * R^-1 mod n
+     */
+    public LargeInteger montMul(LargeInteger a, LargeInteger b) {
+        return redc(a.multiply(b));
+    }
+
+    /**
+     * Montgomery square of a value already in Montgomery form
+     * @param a value in [0, n)
+     * @return a * a * R^-1 mod n
+     */
+    public LargeInteger montSqr(LargeInteger a) {
+        return redc(a.square());
+    }
+
+    // ModularReducer view: the domain is Montgomery form
+
+    public LargeInteger toDomain(LargeInteger x) {
+        return toMontgomery(x);
+    }
+
+    public LargeInteger fromDomain(LargeInteger x) {
+        return fromMontgomery(x);
+    }
+
+    public LargeInteger multiply(LargeInteger a, LargeInteger b) {
+        return montMul(a, b);
+    }
+
+    public LargeInteger square(LargeInteger a) {
+        return montSqr(a);
+    }
+
+    /**
+     * Inverse of a value in Montgomery form: the plain inverse of a*R is
+     * a^-1 * R^-1, and one Montgomery product with R^3 brings that back
+     * to a^-1 * R
+     * @param a value in Montgomery form
+     * @return a^-1 in Montgomery form
+     */
+    public LargeInteger inverse(LargeInteger a) {
+        return montMul(a.modularInverse(n), r3ModN);
+    }
+
+    /**
+     * REDC in place on a mutable value
+     * @param x non-negative value less than n * R, becomes x * R^-1 mod n
+     */
+    public void reduce(MutableLargeInteger x) {
+        if (x.intLen > 2 * k) {
+            throw new IllegalArgumentException("value too large for Montgomery reduction");
+        }
+        x.ensureCapacity(2 * k);
+        Arrays.fill(x.value, x.intLen, 2 * k, 0);
+        redcLimbs(x.value, x.value);
+        x.intLen = k;
+        while (x.intLen > 0 && x.value[x.intLen - 1] == 0) {
+            x.intLen--;
+        }
+    }
+
+    /**
+     * Exponentiation with fixed windows whose running time depends only on
+     * expBits and the size of n: every window squares CONST_WINDOW times
+     * and multiplies once, the table entry is chosen by reading the whole
+     * table through a mask, and all arithmetic is on fixed-length limb
+     * arrays so leading zeros in intermediate values do not show. The
+     * digits of exp are read from a copy padded to expBits, so how many
+     * limbs exp really has does not show either
+     * @param base the base, already in Montgomery form
+     * @param exp non-negative exponent with at most expBits bits
+     * @param expBits public exponent length
+     * @return base^exp mod n, converted back out of Montgomery form
+     */
+    LargeInteger constTimeExp(LargeInteger base, LargeInteger exp, int expBits) {
+        int w = LargeInteger.CONST_WINDOW;
+        int windows = (expBits + w - 1) / w;
+        int[] t = new int[2 * k];
+
+        // exp zero-padded to expBits plus one spare limb, so a digit that
+        //  straddles two limbs is read with the same shifts and masks
+        //  wherever it falls (LargeInteger.getWindow branches on the
+        //  trimmed length)
+        int[] e = new int[((expBits + 31) >>> 5) + 1];
+        int[] expMag = exp.magnitude();
+        System.arraycopy(expMag, 0, e, 0, expMag.length);
+
+        // table[d] = base^d in Montgomery form
+        int[][] table = new int[1 << w][];
+        table[0] = limbs(rModN);
+        table[1] = limbs(base);
+        for (int d = 2; d < table.length; d++) {
+            table[d] = new int[k];
+            montMulLimbs(table[d - 1], table[1], t, table[d]);
+        }
+
+        int[] acc = limbs(rModN);
+        int[] tmp = new int[k];
+        int[] sel = new int[k];
+        int[] swap;
+
+        for (int i = windows - 1; i >= 0; i--) {
+            for (int s = 0; s < w; s++) {
+                montSqrLimbs(acc, t, tmp);
+                swap = acc;
+                acc = tmp;
+                tmp = swap;
+            }
+
+            // masked scan: mask is all ones only for the entry we want
+            int bit = i * w;
+            long pair = (e[bit >>> 5] & LONG_MASK) | ((long) e[(bit >>> 5) + 1] << 32);
+            int digit = (int) (pair >>> (bit & 0x1F)) & ((1 << w) - 1);
+            Arrays.fill(sel, 0);
+            for (int d = 0; d < table.length; d++) {
+                int mask = ((d ^ digit) - 1) >> 31;
+                for (int j = 0; j < k; j++) {
+                    sel[j] |= table[d][j] & mask;
+                }
+            }
+
+            // always multiply, digit 0 just multiplies by one
+            montMulLimbs(acc, sel, t, tmp);
+            swap = acc;
+            acc = tmp;
+            tmp = swap;
+        }
+
+        Arrays.fill(e, 0);
+        Arrays.fill(t, 0);
+        System.arraycopy(acc, 0, t, 0, k);
+        redcLimbs(t, acc);
+        return new LargeInteger(acc, 1);
+    }
+
+    // a * b * R^-1 mod n on k-limb arrays, t is 2k limbs of scratch
+    void montMulLimbs(int[] a, int[] b, int[] t, int[] out) {
+        LargeInteger.multiplyToLen(a, k, b, k, t);
+        redcLimbs(t, out);
+    }
+
+    // a * a * R^-1 mod n on k-limb arrays, t is 2k limbs of scratch
+    void montSqrLimbs(int[] a, int[] t, int[] out) {
+        LargeInteger.squareToLen(a, k, t);
+        redcLimbs(t, out);
+    }
+
+    // x as exactly k limbs
+    private int[] limbs(LargeInteger x) {
+        return Arrays.copyOf(x.magnitude(), k);
+    }
+
+    /**
+     * Montgomery reduction: add multiples of n to clear the low k limbs
+     * of t one limb at a time, then drop them
+     * @param t non-negative value less than n * R
+     * @return t * R^-1 mod n
+     */
+    private LargeInteger redc(LargeInteger t) {
+        int[] tm = Arrays.copyOf(t.magnitude(), 2 * k);
+        int[] res = new int[k];
+        redcLimbs(tm, res);
+        return new LargeInteger(res, 1);
+    }
+
+    /**
+     * REDC on raw limbs without any value-dependent branches
+     * @param tm 2k limbs holding a value less than n * R, overwritten
+     * @param out k limbs receiving tm * R^-1 mod n, may be tm itself
+     */
+    private void redcLimbs(int[] tm, int[] out) {
+        long top = 0; // carry out of limb i + k, lands on the next row's top
+
+        for (int i = 0; i < k; i++) {
+            int m = tm[i] * nPrime; // chosen so limb i becomes zero
+            long ml = m & LONG_MASK;
+            long carry = 0;
+            for (int j = 0; j < k; j++) {
+                carry += ml * (nMag[j] & LONG_MASK) + (tm[i + j] & LONG_MASK);
+                tm[i + j] = (int) carry;
+                carry >>>= 32;
+            }
+            long sum = (tm[i + k] & LONG_MASK) + carry + top;
+            tm[i + k] = (int) sum;
+            top = sum >>> 32;
+        }
+
+        // result is in the upper half and is less than 2n, so at most one
+        //  subtraction of n brings it into range: always subtract into the
+        //  low half, then select with a mask instead of branching
+        long borrow = 0;
+        for (int j = 0; j < k; j++) {
+            borrow = (tm[j + k] & LONG_MASK) - (nMag[j] & LONG_MASK) + borrow;
+            tm[j] = (int) borrow;
+            borrow >>= 32;
+        }
+
+        // keep the difference if there was a carry out or no borrow
+        int mask = -((int) top | (int) (borrow + 1));
+        for (int j = 0; j < k; j++) {
+            out[j] = (tm[j] & mask) | (tm[j + k] & ~mask);
+        }
+    }
+
+    // inverse of an odd x mod 2^32 by Newton iteration, each step doubles
+    //  the number of correct low bits (x is its own inverse mod 8)
+    private static int inverseMod32(int x) {
+        int inv = x;
+        for (int i = 0; i < 4; i++) {
+            inv *= 2 - x * inv;
+        }
+        return inv;
+    }
+}
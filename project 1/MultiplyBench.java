@@ -0,0 +1,98 @@
+/**********************************************************************
+*   Author:         Michael Adams
+*
+*   Crossover benchmark for LargeInteger.multiply: times schoolbook,
+*   Karatsuba and Toom-3 at increasing operand sizes so the thresholds
+*   can be tuned for the host (see LargeInteger.setMultiplyThresholds)
+*
+*   usage: java MultiplyBench [maxLimbs] [karatsubaBase]
+***********************************************************************/
+
+import java.util.Random;
+
+public class MultiplyBench {
+	public static final int WARMUP_MS = 500;
+	public static final int MEASURE_MS = 200;
+
+	public static void main(String[] args) {
+	int maxLimbs = (args.length > 0) ? Integer.parseInt(args[0]) : 1024;
+	int base = (args.length > 1) ? Integer.parseInt(args[1]) : LargeInteger.getKaratsubaThreshold();
+	int defaultKaratsuba = LargeInteger.getKaratsubaThreshold();
+	int defaultToom = LargeInteger.getToomCookThreshold();
+
+	// fixed seed so runs on different hosts multiply the same numbers
+	Random rnd = new Random(1699);
+
+	// each config forces one algorithm at the top level, Karatsuba and
+	// Toom-3 both bottom out in schoolbook below the base size
+	String[] names = { "schoolbook", "karatsuba", "toom-3" };
+	int[][] thresholds = {
+		{ Integer.MAX_VALUE, Integer.MAX_VALUE },
+		{ base, Integer.MAX_VALUE },
+		{ base, base }
+	};
+
+	System.out.printf("%8s %8s %14s %14s %14s   %s%n", "limbs", "bits",
+		"schoolbook ns", "karatsuba ns", "toom-3 ns", "fastest");
+
+	for (int limbs = 8; limbs <= maxLimbs; limbs *= 2) {
+		for (int step = 0; step < 2 && limbs * (2 + step) / 2 <= maxLimbs; step++) {
+			int size = limbs * (2 + step) / 2; // 8, 12, 16, 24, 32, ...
+			LargeInteger x = randomLimbs(size, rnd);
+			LargeInteger y = randomLimbs(size, rnd);
+
+			double[] ns = new double[names.length];
+			int best = 0;
+			for (int a = 0; a < names.length; a++) {
+				if (size < base && a > 0) {
+					ns[a] = Double.NaN; // would just fall back to schoolbook
+					continue;
+				}
+				LargeInteger.setMultiplyThresholds(thresholds[a][0], thresholds[a][1]);
+				ns[a] = time(x, y);
+				if (ns[a] < ns[best]) {
+					best = a;
+				}
+			}
+			System.out.printf("%8d %8d %14.0f %14.0f %14.0f   %s%n", size, size * 32,
+				ns[0], ns[1], ns[2], names[best]);
+		}
+	}
+
+	LargeInteger.setMultiplyThresholds(defaultKaratsuba, defaultToom);
+	}
+
+	// average ns per multiply after a warm-up period
+	private static double time(LargeInteger x, LargeInteger y) {
+		LargeInteger sink = x;
+		long end = System.nanoTime() + WARMUP_MS * 1000000L;
+		while (System.nanoTime() < end) {
+			sink = x.multiply(y);
+		}
+
+		long ops = 0;
+		long start = System.nanoTime();
+		end = start + MEASURE_MS * 1000000L;
+		long now;
+		do {
+			sink = x.multiply(y);
+			ops++;
+			now = System.nanoTime();
+		} while (now < end);
+
+		// keep the result live so the JIT cannot drop the multiply
+		if (sink.isZero()) {
+			System.out.print("");
+		}
+		return (double) (now - start) / ops;
+	}
+
+	// positive random number with exactly the given number of 32-bit limbs
+	private static LargeInteger randomLimbs(int limbs, Random rnd) {
+		byte[] b = new byte[limbs * 4 + 1];
+		rnd.nextBytes(b);
+		b[0] = 0;
+		b[1] |= (byte) 0x80;
+		return new LargeInteger(b);
+	}
+}
@@ -0,0 +1,663 @@
+/**********************************************************************
+*   Author:         Michael Adams
+*
+*   Mutable, non-negative counterpart to LargeInteger for inner loops.
+*   Every operation works in place or into a caller supplied destination
+*   and only allocates when a buffer has to grow, so a loop that reuses
+*   the same few MutableLargeIntegers stops producing garbage once the
+*   buffers reach their working size.
+***********************************************************************/
+
+import java.util.Arrays;
+
+public class MutableLargeInteger {
+    private static final long LONG_MASK = 0xFFFFFFFFL;
+
+    // little-endian limbs, only [0, intLen) are meaningful and the limbs
+    //  above intLen may hold leftovers from earlier values
+    int[] value;
+
+    // limbs in use, value[intLen - 1] != 0 unless the value is zero
+    int intLen;
+
+    // scratch values for reductions, created on first use
+    private MutableLargeInteger scratchA;
+    private MutableLargeInteger scratchB;
+
+    // normalized divisor for divideKnuth
+    private int[] divScratch;
+
+    // workspace for Karatsuba products into this, grown on demand
+    private int[] mulScratch;
+
+    // create a zero value
+    public MutableLargeInteger() {
+        this(1);
+    }
+
+    // create a zero value with room for the given number of limbs
+    public MutableLargeInteger(int capacity) {
+        value = new int[Math.max(1, capacity)];
+        intLen = 0;
+    }
+
+    /**
+     * Create a mutable copy of x
+     * @param x a non-negative LargeInteger
+     */
+    public MutableLargeInteger(LargeInteger x) {
+        this(1);
+        setValue(x);
+    }
+
+    /**
+     * Convert back into an immutable LargeInteger
+     * @return a LargeInteger with this value
+     */
+    public LargeInteger toLargeInteger() {
+        return new LargeInteger(Arrays.copyOf(value, intLen), 1);
+    }
+
+    // make this a copy of x
+    public void setValue(MutableLargeInteger x) {
+        ensureCapacity(x.intLen);
+        System.arraycopy(x.value, 0, value, 0, x.intLen);
+        intLen = x.intLen;
+    }
+
+    // make this a copy of x, which must be non-negative
+    public void setValue(LargeInteger x) {
+        if (x.isNegative()) {
+            throw new IllegalArgumentException("MutableLargeInteger holds non-negative values only");
+        }
+        int[] m = x.magnitude();
+        ensureCapacity(m.length);
+        System.arraycopy(m, 0, value, 0, m.length);
+        intLen = m.length;
+    }
+
+    // set this to zero
+    public void clear() {
+        intLen = 0;
+    }
+
+    public boolean isZero() {
+        return intLen == 0;
+    }
+
+    // is bit i (counting from the lsb) set?
+    public boolean testBit(int i) {
+        int limb = i >>> 5;
+        return limb < intLen && (value[limb] & (1 << (i & 0x1F))) != 0;
+    }
+
+    // set bit i (counting from the lsb) to 1
+    public void setBitInPlace(int i) {
+        int limb = i >>> 5;
+        if (limb >= intLen) {
+            ensureCapacity(limb + 1);
+            Arrays.fill(value, intLen, limb + 1, 0);
+            intLen = limb + 1;
+        }
+        value[limb] |= 1 << (i & 0x1F);
+    }
+
+    // number of bits in this
+    public int bitLength() {
+        if (intLen == 0) {
+            return 0;
+        }
+        return ((intLen - 1) << 5) + (32 - Integer.numberOfLeadingZeros(value[intLen - 1]));
+    }
+
+    // -1, 0 or 1 as this is less than, equal to or greater than x
+    public int compare(MutableLargeInteger x) {
+        if (intLen != x.intLen) {
+            return (intLen > x.intLen) ? 1 : -1;
+        }
+        for (int i = intLen - 1; i >= 0; i--) {
+            if (value[i] != x.value[i]) {
+                return ((value[i] & LONG_MASK) > (x.value[i] & LONG_MASK)) ? 1 : -1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Add x to this in place
+     * @param x value to add, may be this
+     */
+    public void addTo(MutableLargeInteger x) {
+        int len = Math.max(intLen, x.intLen);
+        ensureCapacity(len + 1);
+        Arrays.fill(value, intLen, len + 1, 0);
+
+        long carry = 0;
+        int i = 0;
+        for (; i < x.intLen; i++) {
+            carry += (value[i] & LONG_MASK) + (x.value[i] & LONG_MASK);
+            value[i] = (int) carry;
+            carry >>>= 32;
+        }
+        for (; carry != 0 && i <= len; i++) {
+            carry += (value[i] & LONG_MASK);
+            value[i] = (int) carry;
+            carry >>>= 32;
+        }
+        intLen = len + 1;
+        normalize();
+    }
+
+    /**
+     * Subtract x from this in place
+     * @param x value to subtract, must not be larger than this
+     */
+    public void subtractFrom(MutableLargeInteger x) {
+        if (compare(x) < 0) {
+            throw new ArithmeticException("MutableLargeInteger cannot go negative");
+        }
+
+        long borrow = 0;
+        int i = 0;
+        for (; i < x.intLen; i++) {
+            borrow = (value[i] & LONG_MASK) - (x.value[i] & LONG_MASK) + borrow;
+            value[i] = (int) borrow;
+            borrow >>= 32;
+        }
+        for (; borrow != 0 && i < intLen; i++) {
+            borrow = (value[i] & LONG_MASK) + borrow;
+            value[i] = (int) borrow;
+            borrow >>= 32;
+        }
+        normalize();
+    }
+
+    /**
+     * Shift this left by n bits in place
+     * @param n number of bits, must be non-negative
+     */
+    public void shiftLeftInPlace(int n) {
+        if (intLen == 0 || n == 0) {
+            return;
+        }
+        int limbShift = n >>> 5;
+        int bitShift = n & 0x1F;
+        int newLen = intLen + limbShift + 1;
+        ensureCapacity(newLen);
+
+        // move from the top down so nothing is overwritten before it is read
+        value[newLen - 1] = (bitShift == 0) ? 0 : value[intLen - 1] >>> (32 - bitShift);
+        for (int i = intLen - 1; i > 0; i--) {
+            value[i + limbShift] = (bitShift == 0) ? value[i]
+                : (value[i] << bitShift) | (value[i - 1] >>> (32 - bitShift));
+        }
+        value[limbShift] = value[0] << bitShift;
+        Arrays.fill(value, 0, limbShift, 0);
+
+        intLen = newLen;
+        normalize();
+    }
+
+    /**
+     * Shift this right by n bits in place, dropping the bits shifted out
+     * @param n number of bits, must be non-negative
+     */
+    public void shiftRightInPlace(int n) {
+        int limbShift = n >>> 5;
+        int bitShift = n & 0x1F;
+        dropLowLimbs(limbShift);
+        if (intLen == 0 || bitShift == 0) {
+            return;
+        }
+
+        // move from the bottom up, each limb takes the low bits of the next
+        for (int i = 0; i < intLen - 1; i++) {
+            value[i] = (value[i] >>> bitShift) | (value[i + 1] << (32 - bitShift));
+        }
+        value[intLen - 1] >>>= bitShift;
+        normalize();
+    }
+
+    /**
+     * Shift out every trailing zero bit in place, leaving this odd
+     * @return number of bits shifted out (0 if this is zero)
+     */
+    public int shiftRightToOdd() {
+        int zeros = getLowestSetBit();
+        if (zeros <= 0) {
+            return 0;
+        }
+        shiftRightInPlace(zeros);
+        return zeros;
+    }
+
+    // index of the lowest 1 bit, or -1 if this is zero
+    public int getLowestSetBit() {
+        for (int i = 0; i < intLen; i++) {
+            if (value[i] != 0) {
+                return (i << 5) + Integer.numberOfTrailingZeros(value[i]);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Multiply this by y into dst, which must not be this or y
+     * @param y the other factor, may be this (then a square is used)
+     * @param dst receives this * y
+     */
+    public void mulInto(MutableLargeInteger y, MutableLargeInteger dst) {
+        if (dst == this || dst == y) {
+            throw new IllegalArgumentException("destination must not be an operand");
+        }
+        if (intLen == 0 || y.intLen == 0) {
+            dst.intLen = 0;
+            return;
+        }
+
+        // large operands go through Karatsuba on dst's own workspace, so
+        //  a loop reusing dst stops allocating once it has grown
+        int threshold = (y == this) ? LargeInteger.getKaratsubaSquareThreshold()
+            : LargeInteger.getKaratsubaThreshold();
+        dst.ensureCapacityDiscard(intLen + y.intLen);
+        if (intLen >= threshold && y.intLen >= threshold) {
+            int size = scratchSize(intLen, y.intLen, threshold);
+            if (dst.mulScratch == null || dst.mulScratch.length < size) {
+                dst.mulScratch = new int[size];
+            }
+            karatsuba(value, 0, intLen, y.value, 0, y.intLen, dst.value, 0,
+                dst.mulScratch, 0, threshold);
+        } else if (y == this) {
+            LargeInteger.squareToLen(value, intLen, dst.value);
+        } else {
+            LargeInteger.multiplyToLen(value, intLen, y.value, y.intLen, dst.value);
+        }
+        dst.intLen = intLen + y.intLen;
+        dst.normalize();
+    }
+
+    /**
+     * Multiply this by y into dst, keeping only the low limbs of the
+     * product, i.e. this * y mod 2^(32 * limbs). Partial products above
+     * the cut are never computed
+     * @param y the other factor
+     * @param dst receives the low limbs, must not be this or y
+     * @param limbs number of limbs to keep
+     */
+    public void mulLowInto(MutableLargeInteger y, MutableLargeInteger dst, int limbs) {
+        if (dst == this || dst == y) {
+            throw new IllegalArgumentException("destination must not be an operand");
+        }
+        int xlen = Math.min(intLen, limbs);
+        int ylen = Math.min(y.intLen, limbs);
+        dst.ensureCapacityDiscard(limbs);
+        int[] z = dst.value;
+        Arrays.fill(z, 0, limbs, 0);
+
+        // row i only reaches limb limbs - 1, its carry lands on a limb no
+        //  earlier row has written
+        for (int i = 0; i < xlen; i++) {
+            long xi = value[i] & LONG_MASK;
+            long carry = 0;
+            int end = Math.min(ylen, limbs - i);
+            for (int j = 0; j < end; j++) {
+                carry += xi * (y.value[j] & LONG_MASK) + (z[i + j] & LONG_MASK);
+                z[i + j] = (int) carry;
+                carry >>>= 32;
+            }
+            if (i + end < limbs) {
+                z[i + end] = (int) carry;
+            }
+        }
+        dst.intLen = limbs;
+        dst.normalize();
+    }
+
+    // square this into dst, which must not be this
+    public void squareInto(MutableLargeInteger dst) {
+        mulInto(this, dst);
+    }
+
+    /**
+     * Reduce this in place after a product of two values in red's domain
+     * (a Montgomery REDC or a Barrett reduction)
+     * @param red reducer for the modulus
+     */
+    public void reduceInPlace(ModularReducer red) {
+        red.reduce(this);
+    }
+
+    /**
+     * Divide this by b using Knuth's Algorithm D (TAOCP vol. 2, 4.3.1):
+     * normalize so the divisor's top limb has its high bit set, estimate
+     * each quotient limb from the top two remainder limbs, then correct.
+     * This is replaced by the remainder
+     * @param b divisor, must not be zero, this or quotient
+     * @param quotient receives the quotient, may be null if not needed
+     */
+    public void divideKnuth(MutableLargeInteger b, MutableLargeInteger quotient) {
+        if (b.intLen == 0) {
+            throw new ArithmeticException("division by zero");
+        }
+        if (compare(b) < 0) {
+            if (quotient != null) {
+                quotient.intLen = 0;
+            }
+            return;
+        }
+        if (b.intLen == 1) {
+            divideOneLimb(b.value[0], quotient);
+            return;
+        }
+
+        int n = b.intLen;
+        int m = intLen - n;
+        int shift = Integer.numberOfLeadingZeros(b.value[n - 1]);
+
+        // D1: normalize, the dividend gets an extra top limb for the
+        //  shifted out bits
+        if (divScratch == null || divScratch.length < n) {
+            divScratch = new int[n];
+        }
+        int[] vn = divScratch;
+        shiftLeftInto(b.value, n, shift, vn);
+        ensureCapacity(intLen + 1);
+        value[intLen] = shiftLeftInto(value, intLen, shift, value);
+        int[] un = value;
+
+        int[] q = null;
+        if (quotient != null) {
+            quotient.ensureCapacityDiscard(m + 1);
+            q = quotient.value;
+        }
+        long vTop = vn[n - 1] & LONG_MASK;
+        long vNext = vn[n - 2] & LONG_MASK;
+
+        for (int j = m; j >= 0; j--) {
+            // D3: estimate qhat from the top two limbs, then refine it with
+            //  the next limb so it is at most one too large
+            long num = ((un[j + n] & LONG_MASK) << 32) | (un[j + n - 1] & LONG_MASK);
+            long qhat = Long.divideUnsigned(num, vTop);
+            long rhat = Long.remainderUnsigned(num, vTop);
+            while (qhat > LONG_MASK || Long.compareUnsigned(qhat * vNext,
+                    (rhat << 32) | (un[j + n - 2] & LONG_MASK)) > 0) {
+                qhat--;
+                rhat += vTop;
+                if (rhat > LONG_MASK) {
+                    break;
+                }
+            }
+
+            // D4: multiply and subtract qhat * vn from the window of un
+            long carry = 0;
+            long borrow = 0;
+            for (int i = 0; i < n; i++) {
+                long p = qhat * (vn[i] & LONG_MASK) + carry;
+                carry = p >>> 32;
+                long t = (un[i + j] & LONG_MASK) - (p & LONG_MASK) - borrow;
+                un[i + j] = (int) t;
+                borrow = t >>> 63;
+            }
+            long t = (un[j + n] & LONG_MASK) - carry - borrow;
+            un[j + n] = (int) t;
+
+            // D6: qhat was one too large, so add the divisor back
+            if (t < 0) {
+                qhat--;
+                carry = 0;
+                for (int i = 0; i < n; i++) {
+                    carry += (un[i + j] & LONG_MASK) + (vn[i] & LONG_MASK);
+                    un[i + j] = (int) carry;
+                    carry >>>= 32;
+                }
+                un[j + n] += (int) carry;
+            }
+            if (q != null) {
+                q[j] = (int) qhat;
+            }
+        }
+
+        // D8: unnormalize the remainder in place
+        intLen = n;
+        normalize();
+        shiftRightInPlace(shift);
+
+        if (quotient != null) {
+            quotient.intLen = m + 1;
+            quotient.normalize();
+        }
+    }
+
+    // divide in place by a single limb d, leaving the remainder in this
+    private void divideOneLimb(int d, MutableLargeInteger quotient) {
+        if (quotient != null) {
+            quotient.ensureCapacityDiscard(intLen);
+        }
+        long dl = d & LONG_MASK;
+        long rem = 0;
+        for (int i = intLen - 1; i >= 0; i--) {
+            long cur = (rem << 32) | (value[i] & LONG_MASK);
+            if (quotient != null) {
+                quotient.value[i] = (int) Long.divideUnsigned(cur, dl);
+            }
+            rem = Long.remainderUnsigned(cur, dl);
+        }
+        if (quotient != null) {
+            quotient.intLen = intLen;
+            quotient.normalize();
+        }
+        value[0] = (int) rem;
+        intLen = (rem == 0) ? 0 : 1;
+    }
+
+    // drop the n lowest limbs, i.e. shift right by 32n bits
+    void dropLowLimbs(int n) {
+        if (n >= intLen) {
+            intLen = 0;
+            return;
+        }
+        System.arraycopy(value, n, value, 0, intLen - n);
+        intLen -= n;
+    }
+
+    // keep only the n lowest limbs, i.e. reduce mod 2^32n
+    void keepLowLimbs(int n) {
+        if (intLen > n) {
+            intLen = n;
+            normalize();
+        }
+    }
+
+    // add 2^(32 * limb) to a value that has fewer than limb limbs
+    void addPowerOfBase(int limb) {
+        ensureCapacity(limb + 1);
+        Arrays.fill(value, intLen, limb, 0);
+        value[limb] = 1;
+        intLen = limb + 1;
+    }
+
+    // z[zo, zo + xlen + ylen) = x[xo, xo + xlen) * y[yo, yo + ylen) by
+    //  Karatsuba down to threshold limbs, using ws[wo, ...) as workspace
+    //  (scratchSize(xlen, ylen, threshold) limbs). z must not overlap the
+    //  operands or ws, and the same array, offset and length for x and y
+    //  is squared
+    private static void karatsuba(int[] x, int xo, int xlen, int[] y, int yo, int ylen,
+        int[] z, int zo, int[] ws, int wo, int threshold) {
+        boolean square = x == y && xo == yo && xlen == ylen;
+        if (xlen < threshold || ylen < threshold) {
+            if (square) {
+                LargeInteger.squareToLen(x, xo, xlen, z, zo);
+            } else {
+                LargeInteger.multiplyToLen(x, xo, xlen, y, yo, ylen, z, zo);
+            }
+            return;
+        }
+
+        if (xlen != ylen) {
+            // unbalanced: cut the longer operand into pieces the length of
+            //  the shorter one and add up their products, each piece's
+            //  product going through ws[wo, wo + 2m)
+            if (xlen < ylen) {
+                int[] ta = x;
+                x = y;
+                y = ta;
+                int t = xo;
+                xo = yo;
+                yo = t;
+                t = xlen;
+                xlen = ylen;
+                ylen = t;
+            }
+            int m = ylen;
+            int zEnd = zo + xlen + ylen;
+            Arrays.fill(z, zo, zEnd, 0);
+            for (int i = 0; i < xlen; i += m) {
+                int len = Math.min(m, xlen - i);
+                karatsuba(x, xo + i, len, y, yo, m, ws, wo, ws, wo + 2 * m, threshold);
+                addInto(ws, wo, len + m, z, zo + i, zEnd);
+            }
+            return;
+        }
+
+        // x = x1 * b^h + x0 and likewise y, then the product is
+        //  z2 * b^2h + (z1 - z2 - z0) * b^h + z0 with z1 = (x0 + x1)(y0 + y1)
+        int h = xlen >>> 1;
+        int hi = xlen - h;
+        karatsuba(x, xo, h, y, yo, h, z, zo, ws, wo, threshold);
+        karatsuba(x, xo + h, hi, y, yo + h, hi, z, zo + 2 * h, ws, wo, threshold);
+
+        int s = hi + 1;
+        int sx = wo;
+        int sy = wo + s;
+        int mid = wo + 2 * s;
+        addHalves(x, xo, h, hi, ws, sx);
+        if (square) {
+            karatsuba(ws, sx, s, ws, sx, s, ws, mid, ws, mid + 2 * s, threshold);
+        } else {
+            addHalves(y, yo, h, hi, ws, sy);
+            karatsuba(ws, sx, s, ws, sy, s, ws, mid, ws, mid + 2 * s, threshold);
+        }
+        subtractInto(z, zo, 2 * h, ws, mid, 2 * s);
+        subtractInto(z, zo + 2 * h, 2 * hi, ws, mid, 2 * s);
+        addInto(ws, mid, 2 * s, z, zo + h, zo + 2 * xlen);
+    }
+
+    // limbs of workspace karatsuba needs for these operand lengths
+    static int scratchSize(int xlen, int ylen, int threshold) {
+        if (xlen < threshold || ylen < threshold) {
+            return 0;
+        }
+        if (xlen != ylen) {
+            int m = Math.min(xlen, ylen);
+            int rest = Math.max(xlen, ylen) % m;
+            int size = scratchSize(m, m, threshold);
+            if (rest > 0) {
+                size = Math.max(size, scratchSize(rest, m, threshold));
+            }
+            return 2 * m + size;
+        }
+        // the half products run before the sums are written, so only the
+        //  middle product's workspace stacks on top of them
+        int s = xlen - (xlen >>> 1) + 1;
+        return 4 * s + scratchSize(s, s, threshold);
+    }
+
+    // ws[at, at + hi + 1) = x[xo, xo + h) + x[xo + h, xo + h + hi), h <= hi
+    private static void addHalves(int[] x, int xo, int h, int hi, int[] ws, int at) {
+        long carry = 0;
+        for (int i = 0; i < hi; i++) {
+            carry += (x[xo + h + i] & LONG_MASK);
+            if (i < h) {
+                carry += (x[xo + i] & LONG_MASK);
+            }
+            ws[at + i] = (int) carry;
+            carry >>>= 32;
+        }
+        ws[at + hi] = (int) carry;
+    }
+
+    // z[zo, zEnd) += a[ao, ao + len), limbs of a past zEnd must be zero
+    private static void addInto(int[] a, int ao, int len, int[] z, int zo, int zEnd) {
+        len = Math.min(len, zEnd - zo);
+        long carry = 0;
+        int i = 0;
+        for (; i < len; i++) {
+            carry += (z[zo + i] & LONG_MASK) + (a[ao + i] & LONG_MASK);
+            z[zo + i] = (int) carry;
+            carry >>>= 32;
+        }
+        for (int j = zo + i; carry != 0 && j < zEnd; j++) {
+            z[j]++;
+            carry = (z[j] == 0) ? 1 : 0;
+        }
+    }
+
+    // a[ao, ao + alen) -= b[bo, bo + blen), blen <= alen and the result
+    //  must not be negative
+    private static void subtractInto(int[] b, int bo, int blen, int[] a, int ao, int alen) {
+        long borrow = 0;
+        int i = 0;
+        for (; i < blen; i++) {
+            borrow = (a[ao + i] & LONG_MASK) - (b[bo + i] & LONG_MASK) + borrow;
+            a[ao + i] = (int) borrow;
+            borrow >>= 32;
+        }
+        for (; borrow != 0 && i < alen; i++) {
+            borrow = (a[ao + i] & LONG_MASK) + borrow;
+            a[ao + i] = (int) borrow;
+            borrow >>= 32;
+        }
+    }
+
+    // reusable scratch values owned by this, for reducers
+    MutableLargeInteger scratchA() {
+        if (scratchA == null) {
+            scratchA = new MutableLargeInteger(value.length);
+        }
+        return scratchA;
+    }
+
+    MutableLargeInteger scratchB() {
+        if (scratchB == null) {
+            scratchB = new MutableLargeInteger(value.length);
+        }
+        return scratchB;
+    }
+
+    // grow the buffer to at least len limbs, keeping the current value
+    void ensureCapacity(int len) {
+        if (value.length < len) {
+            value = Arrays.copyOf(value, Math.max(len, value.length + (value.length >> 1)));
+        }
+    }
+
+    // grow the buffer to at least len limbs, the current value is not needed
+    private void ensureCapacityDiscard(int len) {
+        if (value.length < len) {
+            value = new int[len];
+        }
+    }
+
+    // drop leading zero limbs from intLen
+    private void normalize() {
+        while (intLen > 0 && value[intLen - 1] == 0) {
+            intLen--;
+        }
+    }
+
+    // write x[0..len) shifted left by 0 <= shift < 32 bits into z[0..len),
+    //  returning the bits shifted out of the top (z may be x)
+    static int shiftLeftInto(int[] x, int len, int shift, int[] z) {
+        if (shift == 0) {
+            System.arraycopy(x, 0, z, 0, len);
+            return 0;
+        }
+        int carry = 0;
+        for (int i = 0; i < len; i++) {
+            int cur = x[i];
+            z[i] = (cur << shift) | carry;
+            carry = cur >>> (32 - shift);
+        }
+        return carry;
+    }
+}
@@ -0,0 +1,111 @@
+/**********************************************************************
+*   Author:         Michael Adams
+*
+*   RSA key pair generation on LargeInteger's own prime search. The
+*   modulus n = p * q has exactly the requested bit length, and the
+*   private exponent is d = e^-1 mod lcm(p - 1, q - 1).
+***********************************************************************/
+
+import java.util.Random;
+
+public class RsaKeyPair {
+    // default public exponent, 2^16 + 1
+    public static final LargeInteger DEFAULT_E = LargeInteger.valueOf(65537);
+
+    private final LargeInteger n;
+    private final LargeInteger e;
+    private final LargeInteger d;
+    private final LargeInteger p;
+    private final LargeInteger q;
+
+    private RsaKeyPair(LargeInteger p, LargeInteger q, LargeInteger e, LargeInteger d) {
+        this.n = p.multiply(q);
+        this.e = e;
+        this.d = d;
+        this.p = p;
+        this.q = q;
+    }
+
+    /**
+     * Generate a key pair with the default public exponent
+     * @param bits bit length of the modulus, at least 16
+     * @param rnd source of randomness for the primes
+     * @return a new key pair
+     */
+    public static RsaKeyPair generate(int bits, Random rnd) {
+        return generate(bits, DEFAULT_E, rnd);
+    }
+
+    /**
+     * Generate a key pair: draw primes of half the modulus size until their
+     * product has the full bit length and e is invertible mod
+     * lcm(p - 1, q - 1)
+     * @param bits bit length of the modulus, at least 16
+     * @param e public exponent, odd and greater than 1
+     * @param rnd source of randomness for the primes
+     * @return a new key pair
+     */
+    public static RsaKeyPair generate(int bits, LargeInteger e, Random rnd) {
+        if (bits < 16) {
+            throw new IllegalArgumentException("modulus must be at least 16 bits");
+        }
+        if (e.isEven() || e.compareTo(new LargeInteger(LargeInteger.ONE)) <= 0) {
+            throw new IllegalArgumentException("public exponent must be odd and greater than 1");
+        }
+        LargeInteger oneInt = new LargeInteger(LargeInteger.ONE);
+        int pBits = (bits + 1) / 2;
+
+        while (true) {
+            LargeInteger p = LargeInteger.probablePrime(pBits, rnd);
+            LargeInteger q = LargeInteger.probablePrime(bits - pBits, rnd);
+            if (p.equals(q) || p.multiply(q).bitLength() != bits) {
+                continue;
+            }
+
+            LargeInteger pm1 = p.subtract(oneInt);
+            LargeInteger qm1 = q.subtract(oneInt);
+            LargeInteger lambda = pm1.multiply(qm1).divide(pm1.gcd(qm1));
+            if (!e.gcd(lambda).equals(oneInt)) {
+                continue;
+            }
+
+            // order the factors so that p > q
+            if (p.compareTo(q) < 0) {
+                LargeInteger t = p;
+                p = q;
+                q = t;
+            }
+            return new RsaKeyPair(p, q, e, e.modularInverse(lambda));
+        }
+    }
+
+    // the modulus n = p * q
+    public LargeInteger getModulus() {
+        return n;
+    }
+
+    // the public exponent e
+    public LargeInteger getPublicExponent() {
+        return e;
+    }
+
+    // the private exponent d
+    public LargeInteger getPrivateExponent() {
+        return d;
+    }
+
+    // the larger prime factor of n
+    public LargeInteger getP() {
+        return p;
+    }
+
+    // the smaller prime factor of n
+    public LargeInteger getQ() {
+        return q;
+    }
+
+    // the private key in CRT form, for fast decryption and signing
+    public RsaPrivateKey getPrivateKey() {
+        return new RsaPrivateKey(p, q, e, d);
+    }
+}
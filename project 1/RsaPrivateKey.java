@@ -0,0 +1,99 @@
+/**********************************************************************
+*   Author:         Michael Adams
+*
+*   RSA private key in Chinese Remainder Theorem form. Instead of one
+*   exponentiation mod n with the full d, the private operation does one
+*   mod p with dP = d mod (p - 1) and one mod q with dQ = d mod (q - 1),
+*   both half size, and recombines them with Garner's formula
+*   m = m2 + q * (qInv * (m1 - m2) mod p).
+***********************************************************************/
+
+public class RsaPrivateKey {
+    private final LargeInteger n;
+    private final LargeInteger e;
+    private final LargeInteger p;
+    private final LargeInteger q;
+    private final LargeInteger dP;   // d mod (p - 1)
+    private final LargeInteger dQ;   // d mod (q - 1)
+    private final LargeInteger qInv; // q^-1 mod p
+    private final boolean faultCheck;
+
+    /**
+     * Build the CRT form of a private key, with the fault check on
+     * @param p first prime factor of n
+     * @param q second prime factor of n, different from p
+     * @param e public exponent
+     * @param d private exponent
+     */
+    public RsaPrivateKey(LargeInteger p, LargeInteger q, LargeInteger e, LargeInteger d) {
+        this(p, q, e, d, true);
+    }
+
+    /**
+     * Build the CRT form of a private key
+     * @param p first prime factor of n
+     * @param q second prime factor of n, different from p
+     * @param e public exponent
+     * @param d private exponent
+     * @param faultCheck whether every result is checked against e before
+     *   it is returned (a fault in either half would otherwise leak a
+     *   factor of n through gcd(m^e - c, n))
+     */
+    public RsaPrivateKey(LargeInteger p, LargeInteger q, LargeInteger e, LargeInteger d,
+        boolean faultCheck) {
+        LargeInteger oneInt = new LargeInteger(LargeInteger.ONE);
+        this.n = p.multiply(q);
+        this.e = e;
+        this.p = p;
+        this.q = q;
+        this.dP = d.mod(p.subtract(oneInt));
+        this.dQ = d.mod(q.subtract(oneInt));
+        this.qInv = q.modularInverse(p);
+        this.faultCheck = faultCheck;
+    }
+
+    // the modulus n = p * q
+    public LargeInteger getModulus() {
+        return n;
+    }
+
+    // the public exponent e
+    public LargeInteger getPublicExponent() {
+        return e;
+    }
+
+    /**
+     * RSA private-key operation c^d mod n by CRT. Both halves use
+     * constModularExp with the bit length of their prime as the public
+     * exponent length, so their running time does not depend on d
+     * @param c ciphertext in [0, n)
+     * @return the plaintext c^d mod n
+     * @throws ArithmeticException if the fault check is on and fails
+     */
+    public LargeInteger decrypt(LargeInteger c) {
+        if (c.isNegative() || c.compareTo(n) >= 0) {
+            throw new IllegalArgumentException("input out of range for the modulus");
+        }
+
+        LargeInteger m1 = c.mod(p).constModularExp(dP, p, p.bitLength());
+        LargeInteger m2 = c.mod(q).constModularExp(dQ, q, q.bitLength());
+
+        // Garner: h = qInv * (m1 - m2) mod p, then m = m2 + h * q
+        LargeInteger h = qInv.multiply(m1.subtract(m2)).mod(p);
+        LargeInteger m = m2.add(h.multiply(q));
+
+        if (faultCheck && !m.modularExp(e, n).equals(c)) {
+            throw new ArithmeticException("CRT result failed the public exponent check");
+        }
+        return m;
+    }
+
+    /**
+     * Raw RSA signature, the same private-key operation as decrypt
+     * @param m encoded message in [0, n)
+     * @return the signature m^d mod n
+     */
+    public LargeInteger sign(LargeInteger m) {
+        return decrypt(m);
+    }
+}
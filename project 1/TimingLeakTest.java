@@ -0,0 +1,145 @@
+/**********************************************************************
+*   Author:         Michael Adams
+*
+*   dudect-style timing leak test for modularExp and constModularExp.
+*   Calls are split into two classes, a fixed exponent and fresh random
+*   exponents, interleaved in random order. Welch's t-test is run on the
+*   two timing distributions, both uncropped and cropped at several
+*   upper percentiles to drop interrupts and GC pauses. |t| above 4.5
+*   means the timing depends on the exponent.
+*
+*   usage: java TimingLeakTest [samples] [bitlength]
+***********************************************************************/
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class TimingLeakTest {
+	public static final int BITLENGTH = 512;
+	public static final int SAMPLES = 20000;
+	public static final int WARMUP = 2000;
+	public static final int CROPS = 10;
+	public static final double T_THRESHOLD = 4.5;
+
+	// the operation under test
+	interface ExpMethod {
+		LargeInteger apply(LargeInteger c, LargeInteger d, LargeInteger n);
+	}
+
+	public static void main(String[] args) {
+	int samples = (args.length > 0) ? Integer.parseInt(args[0]) : SAMPLES;
+	int bits = (args.length > 1) ? Integer.parseInt(args[1]) : BITLENGTH;
+
+	Random rnd = new Random();
+	LargeInteger c = new LargeInteger(bits, rnd);
+	LargeInteger n = new LargeInteger(bits, rnd);
+
+	// fixed class: the mostly 0s exponent from AlgATest, with its top bit
+	// set so it has exactly bits bits like the random class
+	byte[] temp0 = new byte[bits/8 + 1];
+	for (int i = 1; i < temp0.length; i++) {
+		temp0[i] = (byte)1;
+	}
+	temp0[1] |= (byte) 0x80;
+	LargeInteger d_fixed = new LargeInteger(temp0);
+
+	boolean leakA = run("modularExp", (x, d, m) -> x.modularExp(d, m),
+		c, n, d_fixed, samples, bits, rnd);
+	boolean leakB = run("constModularExp", (x, d, m) -> x.constModularExp(d, m),
+		c, n, d_fixed, samples, bits, rnd);
+
+	System.out.println();
+	System.out.println("modularExp:      " + (leakA ? "LEAK" : "pass"));
+	System.out.println("constModularExp: " + (leakB ? "LEAK" : "pass"));
+	}
+
+	/**
+	 * Collect interleaved fixed/random timings for one method and t-test them
+	 * @return true if any of the t-tests found a leak
+	 */
+	private static boolean run(String name, ExpMethod method, LargeInteger c,
+		LargeInteger n, LargeInteger d_fixed, int samples, int bits, Random rnd) {
+		// generate every input up front so only the call itself is timed
+		int[] cls = new int[samples];
+		LargeInteger[] exps = new LargeInteger[samples];
+		for (int i = 0; i < samples; i++) {
+			cls[i] = rnd.nextInt(2);
+			exps[i] = (cls[i] == 0) ? d_fixed : randomExp(bits, rnd);
+		}
+
+		LargeInteger sink = new LargeInteger(LargeInteger.ZERO);
+		for (int i = 0; i < WARMUP; i++) {
+			sink = sink.add(method.apply(c, exps[i % samples], n));
+		}
+
+		long[] times = new long[samples];
+		for (int i = 0; i < samples; i++) {
+			long startTime = System.nanoTime();
+			LargeInteger res = method.apply(c, exps[i], n);
+			times[i] = System.nanoTime() - startTime;
+			sink = res;
+		}
+		if (sink.isNegative()) {
+			System.out.print(""); // keeps results live for the JIT
+		}
+
+		// crop thresholds at 1 - 0.5^(10 (k+1) / CROPS) as dudect does, plus
+		// one uncropped test
+		long[] sorted = times.clone();
+		Arrays.sort(sorted);
+		long[] crops = new long[CROPS + 1];
+		crops[0] = Long.MAX_VALUE;
+		for (int k = 0; k < CROPS; k++) {
+			double p = 1 - Math.pow(0.5, 10.0 * (k + 1) / CROPS);
+			crops[k + 1] = sorted[(int) (p * (samples - 1))];
+		}
+
+		System.out.println();
+		System.out.println(name + " (" + samples + " samples, " + bits + " bits)");
+		double worst = 0;
+		for (int k = 0; k < crops.length; k++) {
+			double t = welchT(times, cls, crops[k]);
+			String label = (k == 0) ? "uncropped" : "crop <" + crops[k] + "ns";
+			System.out.printf("  %-20s t = %8.2f%n", label, t);
+			worst = Math.max(worst, Math.abs(t));
+		}
+		System.out.printf("  max |t| = %.2f%n", worst);
+		return worst > T_THRESHOLD;
+	}
+
+	// Welch's t statistic between class 0 and class 1 samples below crop
+	private static double welchT(long[] times, int[] cls, long crop) {
+		double[] mean = new double[2];
+		double[] m2 = new double[2];
+		long[] count = new long[2];
+
+		// Welford's online mean and variance per class
+		for (int i = 0; i < times.length; i++) {
+			if (times[i] >= crop) {
+				continue;
+			}
+			int c = cls[i];
+			count[c]++;
+			double delta = times[i] - mean[c];
+			mean[c] += delta / count[c];
+			m2[c] += delta * (times[i] - mean[c]);
+		}
+		if (count[0] < 2 || count[1] < 2) {
+			return 0;
+		}
+
+		double var0 = m2[0] / (count[0] - 1);
+		double var1 = m2[1] / (count[1] - 1);
+		return (mean[0] - mean[1]) / Math.sqrt(var0 / count[0] + var1 / count[1]);
+	}
+
+	// random positive exponent with its top bit set so both classes have
+	// the same bit length
+	private static LargeInteger randomExp(int bits, Random rnd) {
+		byte[] b = new byte[bits/8 + 1];
+		rnd.nextBytes(b);
+		b[0] = 0;
+		b[1] |= (byte) 0x80;
+		return new LargeInteger(b);
+	}
+}